@@ -0,0 +1,217 @@
+
+/************************************************************************************
+ * @file Aggregates.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+
+/************************************************************************************
+ * The `Aggregates` class holds the accumulators for the aggregate functions of a
+ * group-by, one slot per group, kept in primitive arrays (counts and sums are not
+ * boxed).  The functions are given as, e.g., "count(*) sum(credits) avg(grade)
+ * min(year) max(year) countDistinct(studId)".  Partial aggregates (e.g., computed in
+ * parallel over parts of a table) are combined with merge.
+ */
+class Aggregates
+{
+    /** The supported aggregate functions.
+     */
+    enum Fn { COUNT, SUM, MIN, MAX, AVG, COUNT_DISTINCT }
+
+    final String [] name;                                           // result attribute names, e.g., "sum(credits)"
+    final Fn []     fn;                                             // the aggregate functions
+    final int []    col;                                            // their column (-1 for count(*))
+    final boolean [] real;                                          // whether the column is Double/Float
+    final Class []  resultDomain;                                   // domains of the results
+
+    private int      groups = 0;                                    // number of groups with slots
+    private final List <KeyType> keys = new ArrayList <> ();        // the group-by values of each group
+    private long []  count;                                         // rows (or non-null values) per group and function
+    private long []  lsum;                                          // integer sums
+    private double [] dsum;                                         // real sums
+    private Comparable [] ext;                                      // min/max so far
+    private HashSet <Comparable> [] distinct;                       // distinct values (countDistinct)
+
+    /********************************************************************************
+     * Parse the aggregate functions for a table with the given attributes and domains.
+     * @param aggregates  the aggregate functions, e.g., "count(*) avg(grade)"
+     * @param attribute   the table's attributes
+     * @param domain      the table's domains
+     */
+    Aggregates (String aggregates, String [] attribute, Class [] domain)
+    {
+        var spec = aggregates.trim ().split ("\\s+");
+        name = spec;
+        fn   = new Fn [spec.length];
+        col  = new int [spec.length];
+        real = new boolean [spec.length];
+        resultDomain = new Class [spec.length];
+
+        for (var a = 0; a < spec.length; a++) {
+            var open = spec [a].indexOf ('(');
+            if (open < 0 || ! spec [a].endsWith (")"))
+                throw new IllegalArgumentException (STR."groupBy: bad aggregate \{spec [a]}");
+            var f    = spec [a].substring (0, open);
+            var attr = spec [a].substring (open + 1, spec [a].length () - 1);
+            fn [a] = switch (f) {
+                case "count"         -> Fn.COUNT;
+                case "sum"           -> Fn.SUM;
+                case "min"           -> Fn.MIN;
+                case "max"           -> Fn.MAX;
+                case "avg"           -> Fn.AVG;
+                case "countDistinct" -> Fn.COUNT_DISTINCT;
+                default -> throw new IllegalArgumentException (STR."groupBy: unknown aggregate \{f}");
+            }; // switch
+            col [a] = attr.equals ("*") ? -1 : Arrays.asList (attribute).indexOf (attr);
+            if (col [a] < 0 && ! (attr.equals ("*") && fn [a] == Fn.COUNT))
+                throw new IllegalArgumentException (STR."groupBy: unknown attribute \{attr}");
+            var dom = (col [a] >= 0) ? domain [col [a]] : Long.class;
+            real [a] = dom == Double.class || dom == Float.class;
+            if ((fn [a] == Fn.SUM || fn [a] == Fn.AVG) && ! Number.class.isAssignableFrom (dom))
+                throw new IllegalArgumentException (STR."groupBy: \{f} needs a numeric attribute, not \{attr}");
+            resultDomain [a] = switch (fn [a]) {
+                case COUNT, COUNT_DISTINCT -> Long.class;
+                case SUM -> real [a] ? Double.class : Long.class;
+                case AVG -> Double.class;
+                case MIN, MAX -> dom;
+            }; // switch
+        } // for
+        grow (16);
+    } // constructor
+
+    /********************************************************************************
+     * Construct empty accumulators for the same functions as proto (for a partial).
+     * @param proto  the aggregates to copy the functions from
+     */
+    Aggregates (Aggregates proto)
+    {
+        name = proto.name; fn = proto.fn; col = proto.col; real = proto.real;
+        resultDomain = proto.resultDomain;
+        grow (16);
+    } // constructor
+
+    /********************************************************************************
+     * Add a new group with the given group-by values, returning its number.
+     * @param key  the group-by values of the group
+     */
+    int newGroup (KeyType key)
+    {
+        if ((groups + 1) * fn.length > count.length) grow (2 * (groups + 1));
+        keys.add (key);
+        return groups++;
+    } // newGroup
+
+    /********************************************************************************
+     * Return the group-by values of group g.
+     * @param g  the group number
+     */
+    KeyType key (int g) { return keys.get (g); }
+
+    /********************************************************************************
+     * Return the number of groups.
+     */
+    int groups () { return groups; }
+
+    /********************************************************************************
+     * Accumulate tuple t into group g.
+     * @param g  the group number
+     * @param t  the tuple
+     */
+    void add (int g, Comparable [] t)
+    {
+        var base = g * fn.length;
+        for (var a = 0; a < fn.length; a++) {
+            var s = base + a;
+            var v = (col [a] >= 0) ? t [col [a]] : Boolean.TRUE;   // count(*) counts every row
+            if (v == null) continue;
+            count [s] += 1;
+            switch (fn [a]) {
+                case SUM, AVG -> {
+                    if (real [a]) dsum [s] += ((Number) v).doubleValue ();
+                    else lsum [s] += ((Number) v).longValue ();
+                } // case
+                case MIN -> { if (ext [s] == null || v.compareTo (ext [s]) < 0) ext [s] = v; }
+                case MAX -> { if (ext [s] == null || v.compareTo (ext [s]) > 0) ext [s] = v; }
+                case COUNT_DISTINCT -> {
+                    if (distinct [s] == null) distinct [s] = new HashSet <> ();
+                    distinct [s].add (v);
+                } // case
+                default -> { }
+            } // switch
+        } // for
+    } // add
+
+    /********************************************************************************
+     * Merge group h of the partial aggregates other into group g of these.
+     * @param g      the group number here
+     * @param other  the partial aggregates
+     * @param h      the group number there
+     */
+    void merge (int g, Aggregates other, int h)
+    {
+        for (var a = 0; a < fn.length; a++) {
+            var s = g * fn.length + a;
+            var o = h * fn.length + a;
+            count [s] += other.count [o];
+            lsum [s]  += other.lsum [o];
+            dsum [s]  += other.dsum [o];
+            var x = other.ext [o];
+            if (x != null && (ext [s] == null || (fn [a] == Fn.MIN ? x.compareTo (ext [s]) < 0
+                                                                    : x.compareTo (ext [s]) > 0))) ext [s] = x;
+            if (other.distinct [o] != null) {
+                if (distinct [s] == null) distinct [s] = other.distinct [o];
+                else distinct [s].addAll (other.distinct [o]);
+            } // if
+        } // for
+    } // merge
+
+    /********************************************************************************
+     * Return the aggregate values for group g (avg of no values is null).
+     * @param g  the group number
+     */
+    Comparable [] result (int g)
+    {
+        var r = new Comparable [fn.length];
+        for (var a = 0; a < fn.length; a++) {
+            var s = g * fn.length + a;
+            r [a] = switch (fn [a]) {
+                case COUNT -> count [s];
+                case SUM   -> real [a] ? (Comparable) dsum [s] : (Comparable) lsum [s];
+                case AVG   -> (count [s] == 0) ? null : (real [a] ? dsum [s] : (double) lsum [s]) / count [s];
+                case MIN, MAX -> ext [s];
+                case COUNT_DISTINCT -> (long) ((distinct [s] == null) ? 0 : distinct [s].size ());
+            }; // switch
+        } // for
+        return r;
+    } // result
+
+    /********************************************************************************
+     * Clear group g so its slots can be reused (for sort-based aggregation).
+     * @param g  the group number
+     */
+    void reset (int g)
+    {
+        for (var a = 0; a < fn.length; a++) {
+            var s = g * fn.length + a;
+            count [s] = 0; lsum [s] = 0; dsum [s] = 0.0; ext [s] = null; distinct [s] = null;
+        } // for
+    } // reset
+
+    /********************************************************************************
+     * Grow the accumulator arrays to hold the given number of groups.
+     * @param nGroups  the number of groups
+     */
+    @SuppressWarnings("unchecked")
+    private void grow (int nGroups)
+    {
+        var n = nGroups * fn.length;
+        count    = (count == null) ? new long [n] : Arrays.copyOf (count, n);
+        lsum     = (lsum == null) ? new long [n] : Arrays.copyOf (lsum, n);
+        dsum     = (dsum == null) ? new double [n] : Arrays.copyOf (dsum, n);
+        ext      = (ext == null) ? new Comparable [n] : Arrays.copyOf (ext, n);
+        distinct = (distinct == null) ? new HashSet [n] : Arrays.copyOf (distinct, n);
+    } // grow
+
+} // Aggregates
@@ -0,0 +1,80 @@
+
+/************************************************************************************
+ * @file BloomFilter.java
+ *
+ * @author  John Miller
+ */
+
+/************************************************************************************
+ * The `BloomFilter` class is a compact set of (hash codes of) join keys that answers
+ * "might contain" with no false negatives and few false positives, so a join can drop
+ * the probe tuples that have no partner before doing an index lookup or hashing.  The
+ * k bit positions are taken by double hashing from a 64-bit mix of the key's hash
+ * code, and the bits are kept in a long array.
+ */
+public class BloomFilter
+{
+    private static final double LN2 = Math.log (2);
+
+    private final long [] bits;                                     // the bit array
+    private final long    nBits;                                    // its number of bits
+    private final int     k;                                        // number of hash functions
+
+    /********************************************************************************
+     * Construct an empty Bloom filter for the expected number of keys with the given
+     * false positive probability.
+     * @param expected  the expected number of keys
+     * @param fpp       the false positive probability, e.g., 0.01
+     */
+    public BloomFilter (int expected, double fpp)
+    {
+        var n = Math.max (1, expected);
+        var m = (long) Math.ceil (-n * Math.log (fpp) / (LN2 * LN2));
+        nBits = Math.max (64, (m + 63) / 64 * 64);
+        bits  = new long [(int) (nBits / 64)];
+        k     = Math.max (1, (int) Math.round ((double) nBits / n * LN2));
+    } // constructor
+
+    /********************************************************************************
+     * Add the key with the given hash code.
+     * @param hash  the key's hash code
+     */
+    public void add (int hash)
+    {
+        var h1 = mix (hash);
+        var h2 = mix (h1) | 1;
+        for (var i = 0; i < k; i++) {
+            var b = Long.remainderUnsigned (h1 + i * h2, nBits);
+            bits [(int) (b >>> 6)] |= 1L << b;
+        } // for
+    } // add
+
+    /********************************************************************************
+     * Return whether the key with the given hash code might have been added (false
+     * means it certainly was not).
+     * @param hash  the key's hash code
+     */
+    public boolean mightContain (int hash)
+    {
+        var h1 = mix (hash);
+        var h2 = mix (h1) | 1;
+        for (var i = 0; i < k; i++) {
+            var b = Long.remainderUnsigned (h1 + i * h2, nBits);
+            if ((bits [(int) (b >>> 6)] & (1L << b)) == 0) return false;
+        } // for
+        return true;
+    } // mightContain
+
+    /********************************************************************************
+     * Spread the bits of x (the finalizer of SplitMix64).
+     * @param x  the value to mix
+     */
+    private static long mix (long x)
+    {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    } // mix
+
+} // BloomFilter
+
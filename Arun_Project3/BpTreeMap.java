@@ -214,6 +214,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
 
     private int count  = 0;                                           // counter for number nodes accessed (for performance testing)
     private int kCount = 0;                                           // counter for total number of keys in the B+Tree Map
+    private int height = 1;                                           // number of levels (a lone root leaf is 1)
 
     /********************************************************************************
      * Construct an empty B+Tree map.
@@ -243,6 +244,12 @@ public class BpTreeMap <K extends Comparable <K>, V>
      */
     public int size () { return kCount; }
 
+    /********************************************************************************
+     * Return the height (number of levels) of the B+Tree.
+     * @return  the height of the B+Tree
+     */
+    public int height () { return height; }
+
 //-----------------------------------------------------------------------------------
 // Retrieve values or ranges (sub-trees)
 //-----------------------------------------------------------------------------------
@@ -292,6 +299,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
     private NodePos findp (K key, Node n)
     {
         count += 1;
+        if (Metrics.ENABLED) Metrics.nodeVisits.increment ();
         return (n.isLeaf) ? new NodePos (n, n.findEq (key))
                           : findp (key, (Node) n.ref[n.find (key)]);
     } // findp
@@ -313,6 +321,95 @@ public class BpTreeMap <K extends Comparable <K>, V>
         return null;
     } // put
 
+    /********************************************************************************
+     * Bulk load the key-value pairs into this B+Tree map.  The tree is built bottom-up:
+     * the entries are sorted, merged in one pass with the entries already in the leaves
+     * (which are in order), packed into linked leaves and the internal levels are formed
+     * over them (no splits).  For duplicate keys, the last value wins.
+     * @param entries  the key-value pairs to load
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad (List <Map.Entry <K, V>> entries)
+    {
+        var added = new ArrayList <> (entries);
+        added.sort (Map.Entry.comparingByKey ());                     // stable: later duplicates stay later
+
+        var uniq = new ArrayList <Map.Entry <K, V>> (kCount + added.size ());
+        var old  = (kCount > 0) ? firstLeaf : null;                   // the existing entries, in order
+        var k    = 0;
+        for (var j = 0; old != null || j < added.size (); ) {
+            if (old != null && k == old.keys) { old = (Node) old.ref[0]; k = 0; continue; }   // next leaf
+            Map.Entry <K, V> e;
+            if (old != null && (j == added.size () || old.key[k].compareTo (added.get (j).getKey ()) <= 0)) {
+                e = new AbstractMap.SimpleEntry <> (old.key[k], (V) old.ref[k+1]);   // existing first on ties
+                k++;
+            } else e = added.get (j++);
+            var last = uniq.size () - 1;
+            if (last >= 0 && uniq.get (last).getKey ().compareTo (e.getKey ()) == 0) uniq.set (last, e);
+            else uniq.add (e);
+        } // for
+        var n = uniq.size ();
+        if (n == 0) return;
+        firstLeaf.ref[0] = null;                                      // firstLeaf starts the new tree
+
+        var level   = new ArrayList <Node> ();                        // build the leaf level
+        var nLeaves = (n + ORDER - 2) / (ORDER - 1);
+        Node prev   = null;
+        for (int l = 0, pos = 0; l < nLeaves; l++) {
+            var leaf = (l == 0) ? firstLeaf : new Node (0, true);
+            var cnt  = (n - pos) / (nLeaves - l);                     // spread the keys evenly
+            for (var i = 0; i < cnt; i++, pos++) {
+                leaf.key[i]   = uniq.get (pos).getKey ();
+                leaf.ref[i+1] = uniq.get (pos).getValue ();
+            } // for
+            leaf.keys = cnt;
+            if (prev != null) prev.ref[0] = leaf;                     // LINKED LIST of leaves
+            level.add (prev = leaf);
+        } // for
+
+        height = 1;
+        while (level.size () > 1) {                                   // build the internal levels
+            var m       = level.size ();
+            var parents = new ArrayList <Node> ();
+            var nNodes  = (m + ORDER - 1) / ORDER;
+            for (int p = 0, c = 0; p < nNodes; p++) {
+                var cnt  = (m - c) / (nNodes - p);
+                var node = new Node (cnt - 1, false);
+                for (var i = 0; i < cnt; i++, c++) {
+                    node.ref[i] = level.get (c);
+                    if (i > 0) node.key[i-1] = smallest (level.get (c));   // SMALLEST RIGHT
+                } // for
+                parents.add (node);
+            } // for
+            level = parents;
+            height++;
+        } // while
+
+        root   = level.get (0);
+        kCount = n;
+        if (Metrics.ENABLED) Metrics.treeHeight.accumulate (height);
+    } // bulkLoad
+
+    /********************************************************************************
+     * Record that a new root was made, so the B+Tree grew by a level.
+     */
+    private void grew ()
+    {
+        height++;
+        if (Metrics.ENABLED) Metrics.treeHeight.accumulate (height);
+    } // grew
+
+    /********************************************************************************
+     * Return the smallest key in the sub-tree rooted at node n.
+     * @param n  the root of the sub-tree
+     */
+    @SuppressWarnings("unchecked")
+    private K smallest (Node n)
+    {
+        while (! n.isLeaf) n = (Node) n.ref[0];
+        return n.key[0];
+    } // smallest
+
     /********************************************************************************
      * Recursive helper function for inserting a key into a B+tree.
      * Add key-ref pair into node n and when it is full will split node n by
@@ -332,17 +429,21 @@ public class BpTreeMap <K extends Comparable <K>, V>
     @SuppressWarnings("unchecked")
     private Node insert (K key, V ref, Node n)
     {
-        out.println ("=============================================================");
-        out.println (STR."insert: key \{key}");
-        out.println ("=============================================================");
+        if (DEBUG) {
+            out.println ("=============================================================");
+            out.println (STR."insert: key \{key}");
+            out.println ("=============================================================");
+        } // if
 
         Node rt = null;                                               // holder right sibling node
+        if (Metrics.ENABLED) Metrics.nodeVisits.increment ();
 
         if (n.isLeaf) {                                               // handle LEAF node level
             rt = add (n, key, ref);
             if (rt != null) {
                 if (n != root) return rt;
                 root = new Node (root, rt.key[0], rt);                // make a new root
+                grew ();
             } // if
 
         } else {
@@ -366,6 +467,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
             if (rt != null) {
                 if (n != root) return rt;
                 root = new Node (root, root.key[HALF], rt);
+                grew ();
             } //if
         } // if
         if (DEBUG) printT (root, 0);
@@ -383,7 +485,10 @@ public class BpTreeMap <K extends Comparable <K>, V>
     {
         Node rt = null;                                               // holder for right sibling rt
         n.add (k, v);                                                 // add into node n
-        if (n.overflow ()) rt = n.split ();                           // full => split into n and rt, divider key is rt.key[0]
+        if (n.overflow ()) {                                          // full => split into n and rt, divider key is rt.key[0]
+            rt = n.split ();
+            if (Metrics.ENABLED) Metrics.nodeSplits.increment ();
+        } // if
         return rt;
     } // add
 
@@ -405,6 +510,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
         n.add(k, v);
         if (n.overflow ()) {
             rt = n.splitI();
+            if (Metrics.ENABLED) Metrics.nodeSplits.increment ();
         }
         return rt;
     } // addI
@@ -467,6 +573,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
         } // for
         out.println ("-------------------------------------------");
         out.println (STR."number of keys in BpTree = \{bpTree.kCount}");
+        out.println (STR."height of BpTree = \{bpTree.height}");
         out.println ("-------------------------------------------");
         out.println ("Average number of nodes accessed = " + bpTree.count / (double) totalKeys);
 
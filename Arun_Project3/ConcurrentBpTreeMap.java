@@ -0,0 +1,551 @@
+/************************************************************************************
+ * @file ConcurrentBpTreeMap.java
+ *
+ * @author  John Miller
+ *
+ * compile javac --enable-preview --release 21 ConcurrentBpTreeMap.java
+ * run     java --enable-preview ConcurrentBpTreeMap
+ *
+ * B-link tree (Lehman and Yao 1981): every node has a high key (the divider key of
+ * its right sibling) and a right link.  A split creates the right sibling and links
+ * it in before the divider key reaches the parent, so a reader that lands on a node
+ * whose high key is <= its key simply follows the right link.
+ *     [ . k4 . -- ]                         high = +inf
+ *         [ . k1 . k2 . k3 ] --right-->  [ . k4 . k5 ]
+ *           high = k4                      high = +inf
+ */
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The `ConcurrentBpTreeMap` class provides B+Tree maps that many threads may read and
+ * write at the same time.  Reads take no locks: the contents of a node (keys, refs,
+ * high key and right link) are immutable and are replaced as a whole (copy-on-write),
+ * so a reader always sees a consistent node.  Writers lock only the node being changed:
+ * the leaf, and on a split, the parent (locks are taken bottom-up and left-to-right,
+ * so writers cannot deadlock).  Keys in left sub-trees are "<", while keys in right
+ * sub-trees are ">=" (SMALLEST RIGHT), as in BpTreeMap.  Nodes are not merged on
+ * removal.
+ */
+public class ConcurrentBpTreeMap <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements Serializable
+{
+    private static final int ORDER = 64;                              // default maximum number of children for a node
+
+    private final Class <K> classK;                                   // The class for type K.
+    private final Class <V> classV;                                   // The class for type V.
+    private final int       order;                                    // maximum number of children for a node
+
+//-----------------------------------------------------------------------------------
+// Node and Data inner classes
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * The `Node` inner class defines the nodes of the tree.  A node keeps its identity
+     * (parents and left siblings refer to it) while its contents are replaced.
+     */
+    private class Node implements Serializable
+    {
+        final int           level;                                    // 0 for leaves, parents one more
+        final ReentrantLock lock = new ReentrantLock ();              // held by a writer changing d
+        volatile Data       d;                                        // the current contents
+
+        Node (int level_, Data d_) { level = level_; d = d_; }
+
+        boolean isLeaf () { return level == 0; }
+
+    } // Node
+
+    /********************************************************************************
+     * The `Data` inner class holds the immutable contents of a node.
+     * Leaf:      key[i] -> value ref[i]
+     * Internal:  ref[0] -> sub-tree with keys < key[0]; ref[i] -> sub-tree with keys in
+     *            [key[i-1], key[i]); ...  (one more ref than keys)
+     */
+    private class Data implements Serializable
+    {
+        final K []      key;                                          // array of keys
+        final Object [] ref;                                          // values (leaf) or nodes (internal)
+        final K         high;                                         // keys in this node are < high (null => +inf)
+        final Node      right;                                        // right sibling at the same level
+
+        Data (K [] key_, Object [] ref_, K high_, Node right_)
+        {
+            key = key_; ref = ref_; high = high_; right = right_;
+        } // constructor
+
+        /****************************************************************************
+         * Return whether key k belongs in this node (else it is to the right).
+         * @param k  the key to check
+         */
+        boolean covers (K k) { return high == null || k.compareTo (high) < 0; }
+
+    } // Data
+
+//-----------------------------------------------------------------------------------
+// Fields and constructors
+//-----------------------------------------------------------------------------------
+
+    private volatile Node root;                                       // root of the tree
+    private volatile Node firstLeaf;                                  // first (leftmost) leaf
+    private final AtomicInteger kCount = new AtomicInteger ();        // number of keys
+    private final AtomicInteger splits = new AtomicInteger ();        // number of node splits (for performance testing)
+
+    /********************************************************************************
+     * Construct an empty concurrent B+Tree map.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     */
+    public ConcurrentBpTreeMap (Class <K> _classK, Class <V> _classV)
+    {
+        this (_classK, _classV, ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty concurrent B+Tree map with nodes of the given order (a small
+     * order makes splits, including root splits, frequent, e.g., for testing).
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     * @param _order   the maximum number of children for a node (at least 3)
+     */
+    public ConcurrentBpTreeMap (Class <K> _classK, Class <V> _classV, int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("ConcurrentBpTreeMap: order must be at least 3");
+        classK = _classK;
+        classV = _classV;
+        order  = _order;
+        clear ();
+    } // constructor
+
+    /********************************************************************************
+     * Return the size (number of keys) in the B+Tree.
+     */
+    public int size () { return kCount.get (); }
+
+    /********************************************************************************
+     * Return the height of the B+Tree (1 for just a root leaf).
+     */
+    public int height () { return root.level + 1; }
+
+    /********************************************************************************
+     * Remove all the keys (not atomic with respect to concurrent writers).
+     */
+    @SuppressWarnings("unchecked")
+    public void clear ()
+    {
+        var leaf = new Node (0, new Data ((K []) Array.newInstance (classK, 0), new Object [0], null, null));
+        firstLeaf = leaf;
+        root      = leaf;
+        kCount.set (0);
+    } // clear
+
+//-----------------------------------------------------------------------------------
+// Retrieve values (lock-free)
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Given the key, look up the value in the B+Tree map (without locking).
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        var k = (K) key;
+        var n = descend (k, 0, null);
+        while (true) {
+            var d = n.d;
+            if (d.covers (k)) {
+                var i = search (d.key, k);
+                return (i >= 0) ? (V) d.ref[i] : null;
+            } // if
+            n = d.right;
+        } // while
+    } // get
+
+    /********************************************************************************
+     * Return whether the B+Tree map contains the given key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key) { return get (key) != null; }
+
+    /********************************************************************************
+     * Return a set view of the entries in key order.  Its iterator is weakly consistent:
+     * each leaf is seen as of some point during the iteration.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <> () {
+            public int size () { return kCount.get (); }
+
+            public Iterator <Map.Entry <K, V>> iterator ()
+            {
+                return new Iterator <> () {
+                    Data d = firstLeaf.d;                             // current leaf contents
+                    int  i = 0;                                       // next position in d
+
+                    public boolean hasNext ()
+                    {
+                        while (i >= d.key.length) {
+                            if (d.right == null) return false;
+                            var last = (d.key.length > 0) ? d.key[d.key.length - 1] : null;
+                            d = d.right.d;
+                            i = 0;
+                            if (last != null) while (i < d.key.length && d.key[i].compareTo (last) <= 0) i++;
+                        } // while
+                        return true;
+                    } // hasNext
+
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry <K, V> next ()
+                    {
+                        if (! hasNext ()) throw new NoSuchElementException ();
+                        var e = new AbstractMap.SimpleImmutableEntry <> (d.key[i], (V) d.ref[i]);
+                        i += 1;
+                        return e;
+                    } // next
+                }; // Iterator
+            } // iterator
+        }; // AbstractSet
+    } // entrySet
+
+//-----------------------------------------------------------------------------------
+// Put and remove key-value pairs
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (K key, V value) { return insert (key, value, false); }
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map unless the key is already present
+     * (atomically).
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the current value for this key, or null if none (and it was put)
+     */
+    public V putIfAbsent (K key, V value) { return insert (key, value, true); }
+
+    /********************************************************************************
+     * Remove the given key from the B+Tree map.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        var k = (K) key;
+        var n = lockLeaf (k, null);
+        try {
+            var d = n.d;
+            var i = search (d.key, k);
+            if (i < 0) return null;
+            n.d = new Data (cut (d.key, i), cut (d.ref, i), d.high, d.right);
+            kCount.decrementAndGet ();
+            return (V) d.ref[i];
+        } finally {
+            n.lock.unlock ();
+        } // try
+    } // remove
+
+//-----------------------------------------------------------------------------------
+// Private Methods
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Insert (or replace) the key-value pair.  The leaf is locked and the pair added
+     * (copy-on-write).  When the leaf overflows, it is split into itself and a new right
+     * sibling, which is linked in first; then the parent is locked (before unlocking the
+     * child) and the divider key added, repeating up the tree as needed.
+     * @param k         the key to insert
+     * @param v         the value to insert
+     * @param ifAbsent  whether to leave an existing value in place
+     * @return  the previous value for this key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    private V insert (K k, V v, boolean ifAbsent)
+    {
+        var path = new ArrayDeque <Node> ();                          // internal nodes visited on the way down
+        var n    = lockLeaf (k, path);
+        var d    = n.d;
+        var i    = search (d.key, k);
+        if (i >= 0) {                                                 // key present: replace the value
+            var old = (V) d.ref[i];
+            if (! ifAbsent) {
+                var ref = d.ref.clone ();
+                ref[i] = v;
+                n.d = new Data (d.key, ref, d.high, d.right);
+            } // if
+            n.lock.unlock ();
+            return old;
+        } // if
+        kCount.incrementAndGet ();
+
+        var keys = paste (d.key, -i - 1, k);
+        var refs = paste (d.ref, -i - 1, v);
+        while (true) {
+            if (keys.length < order) {                                // fits: publish and done
+                n.d = new Data (keys, refs, d.high, d.right);
+                n.lock.unlock ();
+                return null;
+            } // if
+
+            var m = keys.length / 2;                                  // split n into n and rt
+            var dkey = keys[m];                                       // divider key
+            Node rt;
+            if (n.isLeaf ()) {                                        // SMALLEST RIGHT moves to rt
+                rt = new Node (0, new Data (Arrays.copyOfRange (keys, m, keys.length),
+                                            Arrays.copyOfRange (refs, m, refs.length), d.high, d.right));
+                n.d = new Data (Arrays.copyOf (keys, m), Arrays.copyOf (refs, m), dkey, rt);
+            } else {                                                  // middle key moves up
+                rt = new Node (n.level, new Data (Arrays.copyOfRange (keys, m + 1, keys.length),
+                                                  Arrays.copyOfRange (refs, m + 1, refs.length), d.high, d.right));
+                n.d = new Data (Arrays.copyOf (keys, m), Arrays.copyOf (refs, m + 1), dkey, rt);
+            } // if
+            splits.incrementAndGet ();
+
+            if (root == n) {                                          // stable while n is locked
+                var kk = (K []) Array.newInstance (classK, 1);
+                kk[0]  = dkey;
+                root   = new Node (n.level + 1, new Data (kk, new Object [] { n, rt }, null, null));
+                n.lock.unlock ();
+                return null;
+            } // if
+
+            // lock the parent level: a node on the path, or (if the tree grew since the
+            // descent) one found from the root; a root split publishes the old root's
+            // split before the new root, so a writer that reached rt by its right link
+            // may find the root still at its own level and must wait for the new one
+            var p = path.isEmpty () ? null : path.pop ();
+            while (true) {
+                if (p == null) p = descend (dkey, n.level + 1, null);
+                p.lock.lock ();
+                if (p.level == n.level + 1) break;
+                p.lock.unlock ();
+                p = null;
+            } // while
+            p = moveRight (p, dkey);
+            n.lock.unlock ();
+            n = p;
+            d = n.d;
+            var ip = upper (d.key, dkey);
+            keys = paste (d.key, ip, dkey);
+            refs = paste (d.ref, ip + 1, rt);
+        } // while
+    } // insert
+
+    /********************************************************************************
+     * Descend (without locking) from the root to the node at the given level whose
+     * range should contain key k, following right links as needed.  If the root is
+     * below the level, wait for the new root being made.
+     * @param k      the key
+     * @param level  the level to stop at (0 for leaves)
+     * @param path   if not null, collects the internal nodes descended from
+     */
+    private Node descend (K k, int level, Deque <Node> path)
+    {
+        var n = root;
+        while (n.level < level) {                                     // a root split is being published
+            Thread.onSpinWait ();
+            n = root;
+        } // while
+        while (n.level > level) {
+            var d = n.d;
+            if (! d.covers (k)) { n = d.right; continue; }
+            if (path != null) path.push (n);
+            n = (Node) d.ref[upper (d.key, k)];
+        } // while
+        return n;
+    } // descend
+
+    /********************************************************************************
+     * Find and lock the leaf whose range contains key k.
+     * @param k     the key
+     * @param path  if not null, collects the internal nodes descended from
+     */
+    private Node lockLeaf (K k, Deque <Node> path)
+    {
+        var n = descend (k, 0, path);
+        n.lock.lock ();
+        return moveRight (n, k);
+    } // lockLeaf
+
+    /********************************************************************************
+     * Starting from locked node n, move right (locking the sibling before unlocking n)
+     * until reaching the node whose range contains key k, which is returned locked.
+     * @param n  the locked node
+     * @param k  the key
+     */
+    private Node moveRight (Node n, K k)
+    {
+        while (! n.d.covers (k)) {
+            var r = n.d.right;
+            r.lock.lock ();
+            n.lock.unlock ();
+            n = r;
+        } // while
+        return n;
+    } // moveRight
+
+    /********************************************************************************
+     * Return the position of key k in the sorted array a, or -(insertion point) - 1.
+     * @param a  the sorted keys
+     * @param k  the key to find
+     */
+    private int search (K [] a, K k)
+    {
+        int lo = 0, hi = a.length - 1;
+        while (lo <= hi) {
+            var mid = (lo + hi) >>> 1;
+            var c   = k.compareTo (a[mid]);
+            if (c == 0) return mid;
+            if (c < 0) hi = mid - 1; else lo = mid + 1;
+        } // while
+        return -lo - 1;
+    } // search
+
+    /********************************************************************************
+     * Return the number of keys in the sorted array a that are <= k, i.e., the child to
+     * follow for key k.
+     * @param a  the sorted keys
+     * @param k  the key
+     */
+    private int upper (K [] a, K k)
+    {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (k.compareTo (a[mid]) < 0) hi = mid; else lo = mid + 1;
+        } // while
+        return lo;
+    } // upper
+
+    /********************************************************************************
+     * Return a copy of array a with x inserted at position i.
+     */
+    private static <T> T [] paste (T [] a, int i, T x)
+    {
+        var b = Arrays.copyOf (a, a.length + 1);
+        System.arraycopy (a, i, b, i + 1, a.length - i);
+        b[i] = x;
+        return b;
+    } // paste
+
+    /********************************************************************************
+     * Return a copy of array a without position i.
+     */
+    private static <T> T [] cut (T [] a, int i)
+    {
+        var b = Arrays.copyOf (a, a.length - 1);
+        System.arraycopy (a, i + 1, b, i, a.length - i - 1);
+        return b;
+    } // cut
+
+//-----------------------------------------------------------------------------------
+// Print/show the B+Tree
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Print the B+Tree level by level (following the right links).
+     */
+    void show ()
+    {
+        out.println (STR."ConcurrentBpTreeMap: height = \{height ()}, splits = \{splits}");
+        for (var first = root; first != null; ) {
+            var sb = new StringBuilder ();
+            for (var n = first; n != null; n = n.d.right) sb.append (STR."\{Arrays.toString (n.d.key)} ");
+            out.println (sb);
+            first = first.isLeaf () ? null : (Node) first.d.ref[0];
+        } // for
+        out.println ("-".repeat (60));
+    } // show
+
+//-----------------------------------------------------------------------------------
+// Main method for running/testing the concurrent B+Tree
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * The main method used for testing: several writers put interleaved keys while
+     * readers look up keys already put, then the results are checked.
+     * @param  the command-line arguments (args[0] gives number of keys to insert)
+     */
+    public static void main (String [] args) throws InterruptedException
+    {
+        var totalKeys = 200000;
+        var nThreads  = 4;
+        if (args.length == 1) totalKeys = Integer.valueOf (args[0]);
+        var tree   = new ConcurrentBpTreeMap <Integer, Integer> (Integer.class, Integer.class);
+        var misses = new AtomicInteger ();
+        var nKeys  = totalKeys;
+
+        var threads = new ArrayList <Thread> ();
+        for (var t = 0; t < nThreads; t++) {
+            var id = t;
+            threads.add (new Thread (() -> {                           // writer id puts keys k with k % nThreads == id
+                var rng = new Random (id);
+                for (var k = id; k < nKeys; k += nThreads) {
+                    tree.put (k, k * 2);
+                    var j = k - nThreads * rng.nextInt (k / nThreads + 1);   // a key this writer already put
+                    if (tree.get (j) == null || tree.get (j) != j * 2) misses.incrementAndGet ();
+                } // for
+            }));
+            threads.add (new Thread (() -> {                           // reader scanning while keys are put
+                for (var r = 0; r < 10; r++) {
+                    Integer prev = null;
+                    for (var e : tree.entrySet ()) {
+                        if (prev != null && e.getKey () <= prev) misses.incrementAndGet ();
+                        prev = e.getKey ();
+                    } // for
+                } // for
+            }));
+        } // for
+        for (var th : threads) th.start ();
+        for (var th : threads) th.join ();
+
+        for (var k = 0; k < nKeys; k++) if (tree.get (k) == null || tree.get (k) != k * 2) misses.incrementAndGet ();
+        for (var k = 0; k < nKeys; k += 3) tree.remove (k);
+        var left = 0;
+        for (var e : tree.entrySet ()) if (e.getKey () % 3 != 0) left++;
+
+        out.println (STR."number of keys in ConcurrentBpTree = \{nKeys}, height = \{tree.height ()}, splits = \{tree.splits}");
+        out.println (STR."misses (should be 0) = \{misses}");
+        out.println (STR."after removing every third key: size = \{tree.size ()}, entries = \{left}");
+        if (nKeys <= 200) tree.show ();
+
+        // many writers on a tree of order 3, so the root splits often while others insert
+        for (var trial = 0; trial < 20; trial++) {
+            var small = new ConcurrentBpTreeMap <Integer, Integer> (Integer.class, Integer.class, 3);
+            var many  = 16;
+            var keys  = Math.min (nKeys, 20000);
+            var ws    = new ArrayList <Thread> ();
+            for (var t = 0; t < many; t++) {
+                var id = t;
+                ws.add (new Thread (() -> { for (var k = id; k < keys; k += many) small.put (k, k); }));
+            } // for
+            for (var th : ws) th.start ();
+            for (var th : ws) th.join ();
+            var bad = 0;
+            for (var k = 0; k < keys; k++) if (small.get (k) == null || small.get (k) != k) bad++;
+            Integer prev = null;
+            for (var e : small.entrySet ()) {
+                if (prev != null && e.getKey () <= prev) bad++;
+                prev = e.getKey ();
+            } // for
+            if (bad > 0 || small.size () != keys) misses.addAndGet (bad + 1);
+        } // for
+        out.println (STR."after root split stress (order 3, 16 writers): misses (should be 0) = \{misses}");
+    } // main
+
+} // ConcurrentBpTreeMap
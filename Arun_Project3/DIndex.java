@@ -14,76 +14,476 @@ import java.util.*;
 import static java.lang.System.out;
 
 /************************************************************************************
- * The `DIndex` class provides Direct Index maps, where keys are only implicitly stored
- * and the values are stored by using the key as an index into an array, i.e.,
+ * The `DIndex` class provides Direct Index maps from int keys to int values (e.g., the
+ * location of a tuple in a Table), where both are stored unboxed, i.e.,
  *     dindex [key] = value
- * It can be used to store the location of tuples in a Table.
+ * The keys may range over all ints: they are stored in an open addressing (linear
+ * probing) table, so colliding keys never overwrite each other.  When the table needs
+ * to grow, the entries are moved to the larger table a few slots per put/remove, so no
+ * single operation pays for rehashing the whole table.
  */
 public class DIndex
        extends AbstractMap <Integer, Integer>
        implements Serializable, Cloneable
 {
-    private int [] dindex;                                 // direct index strorage array
+    /** The value returned by get (int) and put (int, int) when the key is absent.
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int    EMPTY = Integer.MIN_VALUE;             // marks an empty slot (that key is kept separately)
+    private static final int    STEP  = 8;                             // slots migrated per put/remove while growing
+    private static final double LOAD  = 0.5;                           // maximum load factor (keys / slots)
+
+    private int [] keys;                                               // keys (EMPTY for empty slots)
+    private int [] vals;                                               // values for the keys
+    private int    used;                                               // number of keys in keys/vals
+
+    private int [] oldKeys;                                            // table being migrated, null when not growing
+    private int [] oldVals;                                            // its values
+    private long [] gone;                                              // bits for old slots removed/replaced since growing began
+    private int    moved;                                              // old slots before this have been migrated
+
+    private boolean hasEmpty;                                          // whether key EMPTY is present
+    private int     emptyVal;                                          // the value for key EMPTY
+    private int     kCount;                                            // number of keys in the map
 
     /********************************************************************************
-     * Return the size (number of available entries) in the Direct Index map.
+     * Construct an empty Direct Index map.
+     * @param nKeys  the expected number of keys (the map grows beyond this as needed)
      */
-    public int size ()
+    public DIndex (int nKeys)
     {
-        return dindex.length;
-    } // size
+        var cap = 16;
+        while (cap * LOAD < nKeys && cap < 1 << 30) cap <<= 1;
+        keys = new int [cap];
+        vals = new int [cap];
+        Arrays.fill (keys, EMPTY);
+    } // constructor
 
     /********************************************************************************
-     * Construct an empty Direct Index map.
-     * @param nKeys  the number of possible keys (0 ... nKeys-1)
+     * Construct an empty Direct Index map with a small initial capacity.
      */
-    public DIndex (int nKeys)
+    public DIndex ()
     {
-        dindex = new int [nKeys];
-        Arrays.fill (dindex, -1);                          // -1 marker for not found
+        this (0);
     } // constructor
 
     /********************************************************************************
-     * Put the key-value pair in the Direct Index map.  Only the value needs to be stored.
-     * @param key    the key to implicitly insert
+     * Return the size (number of keys) in the Direct Index map.
+     */
+    public int size ()
+    {
+        return kCount;
+    } // size
+
+    //-----------------------------------------------------------------------------------
+    // Primitive (unboxed) operations
+    //-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Put the key-value pair in the Direct Index map.
+     * @param key    the key to insert
      * @param value  the value to insert (e.g., index/location of tuple)
-     * @return  the previous value for this key
+     * @return  the previous value for this key, or NOT_FOUND (-1)
      */
     public int put (int key, int value)
     {
-        var old = dindex [key];
-        dindex [key] = value;
+        if (key == EMPTY) {
+            var old = hasEmpty ? emptyVal : NOT_FOUND;
+            if (! hasEmpty) kCount += 1;
+            hasEmpty = true;
+            emptyVal = value;
+            return old;
+        } // if
+
+        if (oldKeys != null) migrate ();
+        var old = NOT_FOUND;
+        var s   = find (keys, key);
+        if (keys [s] == key) {                                          // already in the new table
+            old = vals [s];
+            vals [s] = value;
+            return old;
+        } // if
+
+        var found = false;
+        if (oldKeys != null) {                                          // not yet migrated: take it out of the old table
+            var t = find (oldKeys, key);
+            if (oldKeys [t] == key && live (t)) {
+                old = oldVals [t];
+                gone [t >>> 6] |= 1L << t;
+                found = true;
+            } // if
+        } // if
+        if (! found) {
+            if (oldKeys == null && used + 1 > LOAD * keys.length) {      // start growing
+                grow ();
+                s = find (keys, key);
+            } // if
+            kCount += 1;
+        } // if
+        keys [s] = key;
+        vals [s] = value;
+        used    += 1;
         return old;
     } // put
 
     /********************************************************************************
      * Given the key, look up the value in the Direct Index map.
      * @param key  the key used for look up
-     * @return  the value associated with the key or -1 if not found
+     * @return  the value associated with the key or NOT_FOUND (-1) if not found
+     */
+    public int get (int key)
+    {
+        if (key == EMPTY) return hasEmpty ? emptyVal : NOT_FOUND;
+        var s = find (keys, key);
+        if (keys [s] == key) return vals [s];
+        if (oldKeys != null) {
+            var t = find (oldKeys, key);
+            if (oldKeys [t] == key && live (t)) return oldVals [t];
+        } // if
+        return NOT_FOUND;
+    } // get
+
+    /********************************************************************************
+     * Return whether the Direct Index map contains the given key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (int key)
+    {
+        if (key == EMPTY) return hasEmpty;
+        if (keys [find (keys, key)] == key) return true;
+        if (oldKeys != null) {
+            var t = find (oldKeys, key);
+            return oldKeys [t] == key && live (t);
+        } // if
+        return false;
+    } // containsKey
+
+    /********************************************************************************
+     * Remove the given key from the Direct Index map.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or NOT_FOUND (-1)
+     */
+    public int remove (int key)
+    {
+        if (key == EMPTY) {
+            if (! hasEmpty) return NOT_FOUND;
+            hasEmpty = false;
+            kCount  -= 1;
+            return emptyVal;
+        } // if
+
+        if (oldKeys != null) migrate ();
+        var s = find (keys, key);
+        if (keys [s] == key) {
+            var old = vals [s];
+            delete (s);
+            kCount -= 1;
+            return old;
+        } // if
+        if (oldKeys != null) {
+            var t = find (oldKeys, key);
+            if (oldKeys [t] == key && live (t)) {
+                gone [t >>> 6] |= 1L << t;
+                kCount -= 1;
+                return oldVals [t];
+            } // if
+        } // if
+        return NOT_FOUND;
+    } // remove
+
+    //-----------------------------------------------------------------------------------
+    // Map operations (boxed)
+    //-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Put the key-value pair in the Direct Index map.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public Integer put (Integer key, Integer value)
+    {
+        var had = containsKey ((int) key);
+        var old = put ((int) key, (int) value);
+        return had ? old : null;
+    } // put
+
+    /********************************************************************************
+     * Given the key, look up the value in the Direct Index map.
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
      */
-    @SuppressWarnings("unchecked")
     public Integer get (Object key)
     {
-        return dindex [(int) key];
+        if (! (key instanceof Integer k) || ! containsKey ((int) k)) return null;
+        return get ((int) k);
     } // get
 
+    /********************************************************************************
+     * Return whether the Direct Index map contains the given key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        return key instanceof Integer k && containsKey ((int) k);
+    } // containsKey
+
+    /********************************************************************************
+     * Remove the given key from the Direct Index map.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public Integer remove (Object key)
+    {
+        if (! (key instanceof Integer k) || ! containsKey ((int) k)) return null;
+        return remove ((int) k);
+    } // remove
+
+    /********************************************************************************
+     * Remove all the keys from the Direct Index map (keeping its capacity).
+     */
+    public void clear ()
+    {
+        Arrays.fill (keys, EMPTY);
+        oldKeys  = null;
+        oldVals  = null;
+        gone     = null;
+        used     = 0;
+        hasEmpty = false;
+        kCount   = 0;
+    } // clear
+
     /********************************************************************************
      * Return a set containing all the entries as pairs of keys and values.
      * @return  the set view of the map
      */
     public Set <Map.Entry <Integer, Integer>> entrySet ()
     {
-        return null;                                                 // not supported
+        return new AbstractSet <> () {
+            public int size () { return kCount; }
+
+            public Iterator <Map.Entry <Integer, Integer>> iterator ()
+            {
+                return new Iterator <> () {
+                    int i = hasEmpty ? -1 : 0;                          // -1 => key EMPTY, then new slots, then old slots
+
+                    public boolean hasNext ()
+                    {
+                        for ( ; i >= 0; i++) {
+                            if (i < keys.length) {
+                                if (keys [i] != EMPTY) return true;
+                            } else if (oldKeys != null && i < keys.length + oldKeys.length) {
+                                var t = i - keys.length;
+                                if (oldKeys [t] != EMPTY && live (t)) return true;
+                            } else {
+                                return false;
+                            } // if
+                        } // for
+                        return true;
+                    } // hasNext
+
+                    public Map.Entry <Integer, Integer> next ()
+                    {
+                        if (! hasNext ()) throw new NoSuchElementException ();
+                        int k, v;
+                        if (i < 0) { k = EMPTY; v = emptyVal; }
+                        else if (i < keys.length) { k = keys [i]; v = vals [i]; }
+                        else { k = oldKeys [i - keys.length]; v = oldVals [i - keys.length]; }
+                        i += 1;
+                        return new AbstractMap.SimpleImmutableEntry <> (k, v);
+                    } // next
+                }; // Iterator
+            } // iterator
+        }; // AbstractSet
     } // entrySet
 
+    //-----------------------------------------------------------------------------------
+    // Private Methods
+    //-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Return the slot in table t holding key, or else the empty slot ending its probe.
+     * @param t    the table of keys
+     * @param key  the key to find
+     */
+    private static int find (int [] t, int key)
+    {
+        var mask = t.length - 1;
+        var s    = hash (key) & mask;
+        while (t [s] != key && t [s] != EMPTY) s = (s + 1) & mask;
+        return s;
+    } // find
+
+    /********************************************************************************
+     * Return the home slot hash for the key (spreading the bits of dense keys).
+     * @param key  the key to hash
+     */
+    private static int hash (int key)
+    {
+        var h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    } // hash
+
+    /********************************************************************************
+     * Return whether old slot t still holds a live (not removed or replaced) entry.
+     * @param t  the slot in the old table
+     */
+    private boolean live (int t)
+    {
+        return t >= moved && (gone [t >>> 6] & (1L << t)) == 0;
+    } // live
+
+    /********************************************************************************
+     * Start growing: the current table becomes the old table to be migrated into a new
+     * table twice the size.
+     */
+    private void grow ()
+    {
+        oldKeys = keys;
+        oldVals = vals;
+        gone    = new long [(oldKeys.length + 63) >>> 6];
+        moved   = 0;
+        keys    = new int [oldKeys.length << 1];
+        vals    = new int [oldKeys.length << 1];
+        Arrays.fill (keys, EMPTY);
+        used    = 0;
+    } // grow
+
+    /********************************************************************************
+     * Move the next STEP slots of the old table to the new table, dropping the old
+     * table when done.  Since the new table is twice the size and growing began at half
+     * load, migration finishes well before the new table fills.
+     */
+    private void migrate ()
+    {
+        var end = Math.min (moved + STEP, oldKeys.length);
+        for (var t = moved; t < end; t++) {
+            var k = oldKeys [t];
+            if (k != EMPTY && (gone [t >>> 6] & (1L << t)) == 0) {
+                var s = find (keys, k);
+                keys [s] = k;
+                vals [s] = oldVals [t];
+                used    += 1;
+            } // if
+        } // for
+        moved = end;
+        if (moved == oldKeys.length) { oldKeys = null; oldVals = null; gone = null; }
+    } // migrate
+
+    /********************************************************************************
+     * Delete the entry at slot s of the new table, shifting back later entries of its
+     * probe sequence so that no tombstones are needed.
+     * @param s  the slot to empty
+     */
+    private void delete (int s)
+    {
+        var mask = keys.length - 1;
+        for (var j = (s + 1) & mask; keys [j] != EMPTY; j = (j + 1) & mask) {
+            var home = hash (keys [j]) & mask;
+            if (((j - home) & mask) >= ((j - s) & mask)) {              // keys [j] may move back to s
+                keys [s] = keys [j];
+                vals [s] = vals [j];
+                s = j;
+            } // if
+        } // for
+        keys [s] = EMPTY;
+        used    -= 1;
+    } // delete
+
+    //-----------------------------------------------------------------------------------
+    // Table index adapter
+    //-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * The `TupleMap` class adapts a DIndex to serve as a Table index for a single Integer
+     * key column: it maps the key to the tuple's position in the table's list of tuples,
+     * so neither keys nor positions are boxed.
+     */
+    static class TupleMap
+           extends AbstractMap <KeyType, Comparable []>
+           implements Serializable
+    {
+        private final DIndex pos = new DIndex ();                       // key -> position in tuples
+        private final List <Comparable []> tuples;                      // the table's tuples
+        private final int col;                                          // the key column
+
+        /****************************************************************************
+         * Construct an index over the key column col of the tuples.
+         * @param _tuples  the table's tuples
+         * @param _col     the key column (of domain Integer)
+         */
+        TupleMap (List <Comparable []> _tuples, int _col)
+        {
+            tuples = _tuples;
+            col    = _col;
+        } // constructor
+
+        /****************************************************************************
+         * Index the tuples at positions first (inclusive) to last (exclusive).
+         * @param first  the first position
+         * @param last   the position after the last
+         */
+        void addAll (int first, int last)
+        {
+            for (var j = first; j < last; j++) pos.put ((int) (Integer) tuples.get (j) [col], j);
+        } // addAll
+
+        public int size () { return pos.size (); }
+
+        public Comparable [] get (Object key)
+        {
+            if (! (key instanceof KeyType k) || k.size () != 1 || ! (k.get (0) instanceof Integer i)) return null;
+            var p = pos.get ((int) i);
+            return (p == NOT_FOUND) ? null : tuples.get (p);
+        } // get
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        /****************************************************************************
+         * Put the tuple for the key, which must be the last one appended to the table
+         * (compared by value, since an OffHeapTupleList creates a new array on each get).
+         * Tuples at other positions are indexed with addAll.
+         * @param key  the key (of the tuple)
+         * @param tup  the tuple, which must be the last in the table
+         */
+        public Comparable [] put (KeyType key, Comparable [] tup)
+        {
+            var p = tuples.size () - 1;
+            if (p < 0 || tuples.get (p) != tup && ! Arrays.equals (tuples.get (p), tup))
+                throw new IllegalArgumentException ("TupleMap.put: tuple is not the last in the table; use addAll");
+            var old = pos.put ((int) (Integer) key.get (0), p);
+            return (old == NOT_FOUND) ? null : tuples.get (old);
+        } // put
+
+        public Set <Map.Entry <KeyType, Comparable []>> entrySet ()
+        {
+            return new AbstractSet <> () {
+                public int size () { return pos.size (); }
+
+                public Iterator <Map.Entry <KeyType, Comparable []>> iterator ()
+                {
+                    var it = pos.entrySet ().iterator ();
+                    return new Iterator <> () {
+                        public boolean hasNext () { return it.hasNext (); }
+                        public Map.Entry <KeyType, Comparable []> next ()
+                        {
+                            var e = it.next ();
+                            return Map.entry (KeyType.of (e.getKey ()), tuples.get (e.getValue ()));
+                        } // next
+                    }; // Iterator
+                } // iterator
+            }; // AbstractSet
+        } // entrySet
+
+    } // TupleMap
+
     /********************************************************************************
      * Main method for creating, populating and querying a student table via pin-codes.
      * @param args  the command-line arguments
      */
     public static void main (String [] args)
     {
-        var nKeys = 2000000;                                 // number of possible keys
-
         var student = new Table ("student", "pin name",
                                             "Integer String", "pin");
 
@@ -93,18 +493,18 @@ public class DIndex
         var s1 = new Comparable [] { pin[1], "Paul" };
         var s2 = new Comparable [] { pin[2], "Mary" };
 
-        var sindex = new DIndex (nKeys);                     // create a Direct Index for the student table
-        sindex.put (pin[0] % nKeys, student.insert (s0));
-        sindex.put (pin[1] % nKeys, student.insert (s1));
-        sindex.put (pin[2] % nKeys, student.insert (s2));
+        var sindex = new DIndex ();                          // create a Direct Index for the student table
+        sindex.put (pin[0], student.insert (s0));
+        sindex.put (pin[1], student.insert (s1));
+        sindex.put (pin[2], student.insert (s2));
 
         student.print ();
         out.println ("Find the tuples using the pin");
         for (var k = pin.length-1; k >= 0; k--)
-            student.printTup (student.get (sindex.get (pin[k] % nKeys)));
+            student.printTup (student.get (sindex.get (pin[k])));
 
-       out.println ("size (entries) of sindex = " + sindex.size ());
+        out.println ("size (keys) of sindex = " + sindex.size ());
+        out.println ("entries of sindex = " + sindex.entrySet ());
     } // main
 
 } // DIndex
-
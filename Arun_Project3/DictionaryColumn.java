@@ -0,0 +1,193 @@
+
+/************************************************************************************
+ * @file DictionaryColumn.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/************************************************************************************
+ * The `DictionaryColumn` class dictionary encodes a String column of a table: each
+ * distinct value is given an int code and kept once, the tuples are made to share that
+ * one String, and the code of every row is kept in an int array.  Conditions on the
+ * column are then tested on the codes (an equality is one int comparison), as are
+ * equi-joins of two encoded columns (after translating one dictionary into the other).
+ * An ordered dictionary also keeps codes in the order of the values, so range
+ * conditions may be tested on codes; a value arriving out of order makes the
+ * dictionary re-sort its values (and recode its rows) before the next range test.
+ * Nulls get the code -1.
+ */
+class DictionaryColumn
+      implements Serializable
+{
+    /** The codes of the rows with a test on them (null if the test needs the values).
+     */
+    record Codes (int [] codes, IntPredicate test) { }
+
+    private static final int ABSENT = -2;                           // code of a value not in the dictionary
+
+    private final int     col;                                      // the column encoded
+    private final boolean ordered;                                  // whether codes follow the values' order
+    private final Map <String, Integer> codeOf = new HashMap <> ();  // value -> code
+    private final List <String> values = new ArrayList <> ();       // code -> value
+    private int [] codes = new int [16];                            // code of each row
+    private int rows = 0;                                           // number of rows encoded
+    private boolean sorted = true;                                  // whether the values are in order
+
+    /********************************************************************************
+     * Construct an empty dictionary for the given column.
+     * @param _col      the column to encode
+     * @param _ordered  whether the codes are to preserve the order of the values
+     */
+    DictionaryColumn (int _col, boolean _ordered)
+    {
+        col     = _col;
+        ordered = _ordered;
+    } // constructor
+
+    /********************************************************************************
+     * Encode the rows appended to the list since the last call, replacing each value
+     * in the tuples with the dictionary's copy.
+     * @param tuples  the table's tuples (only ever appended to)
+     */
+    synchronized void extend (List <Comparable []> tuples)
+    {
+        var n = tuples.size ();
+        if (n > codes.length) codes = Arrays.copyOf (codes, Math.max (n, 2 * codes.length));
+        for ( ; rows < n; rows++) {
+            var t = tuples.get (rows);
+            if (t [col] == null) { codes [rows] = -1; continue; }
+            var c = encode ((String) t [col]);
+            t [col] = values.get (c);
+            codes [rows] = c;
+        } // for
+    } // extend
+
+    /********************************************************************************
+     * Return the codes of the rows (encoding any new ones) with a test on them for the
+     * condition value op v, where op is ==, !=, <, <=, >, >=.  The test is null when it
+     * cannot be made on codes (a range on an unordered dictionary).
+     * @param tuples  the table's tuples
+     * @param op      the comparison operator
+     * @param v       the value to compare with
+     */
+    synchronized Codes codes (List <Comparable []> tuples, String op, String v)
+    {
+        extend (tuples);
+        if (op.equals ("==") || op.equals ("!=")) {
+            int k = codeOf.getOrDefault (v, ABSENT);
+            return new Codes (codes, op.equals ("==") ? c -> c == k : c -> c >= 0 && c != k);
+        } // if
+        if (! ordered) return new Codes (codes, null);
+        if (! sorted) resort ();
+
+        var lo = bound (v, false);                                  // number of values < v
+        var hi = bound (v, true);                                   // number of values <= v
+        IntPredicate test = switch (op) {
+            case "<"  -> c -> c >= 0 && c < lo;
+            case "<=" -> c -> c >= 0 && c < hi;
+            case ">"  -> c -> c >= hi;
+            case ">=" -> c -> c >= lo;
+            default   -> null;
+        }; // switch
+        return new Codes (codes, test);
+    } // codes
+
+    /********************************************************************************
+     * Return the codes of the rows (encoding any new ones).
+     * @param tuples  the table's tuples
+     */
+    synchronized int [] codes (List <Comparable []> tuples)
+    {
+        extend (tuples);
+        return codes;
+    } // codes
+
+    /********************************************************************************
+     * Return the codes of the rows of this column translated into the codes of dictionary
+     * d2 (negative if null or not in d2), and the codes of the rows of d2, for an equi-join
+     * of the two columns.  The codes of d2 are snapshot together with its values, so a
+     * re-sort of either dictionary cannot fall between taking the codes and translating.
+     * @param tuples   this table's tuples
+     * @param d2       the other dictionary
+     * @param tuples2  the other table's tuples
+     */
+    int [][] joinCodes (List <Comparable []> tuples, DictionaryColumn d2, List <Comparable []> tuples2)
+    {
+        int [] k2;
+        Map <String, Integer> codeOf2;
+        synchronized (d2) {
+            d2.extend (tuples2);
+            k2      = Arrays.copyOf (d2.codes, d2.rows);
+            codeOf2 = new HashMap <> (d2.codeOf);
+        } // synchronized
+        synchronized (this) {
+            extend (tuples);
+            var to = new int [values.size ()];                      // this dictionary's codes -> d2's
+            for (var c = 0; c < to.length; c++) to [c] = codeOf2.getOrDefault (values.get (c), ABSENT);
+            var k1 = new int [rows];
+            for (var i = 0; i < rows; i++) k1 [i] = (codes [i] < 0) ? -1 : to [codes [i]];
+            return new int [][] { k1, k2 };
+        } // synchronized
+    } // joinCodes
+
+    /********************************************************************************
+     * Return the number of distinct values.
+     */
+    synchronized int size () { return values.size (); }
+
+    /********************************************************************************
+     * Return the code of value s, adding it to the dictionary if new.
+     */
+    private int encode (String s)
+    {
+        var c = codeOf.get (s);
+        if (c != null) return c;
+        c = values.size ();
+        if (ordered && c > 0 && s.compareTo (values.get (c - 1)) < 0) sorted = false;
+        values.add (s);
+        codeOf.put (s, c);
+        return c;
+    } // encode
+
+    /********************************************************************************
+     * Put the values back in order and recode the rows (into a new array, since scans
+     * may still be reading the old one).
+     */
+    private void resort ()
+    {
+        var old = new ArrayList <> (values);
+        Collections.sort (values);
+        var remap = new int [old.size ()];
+        for (var c = 0; c < values.size (); c++) {
+            var s = values.get (c);
+            remap [codeOf.get (s)] = c;
+            codeOf.put (s, c);
+        } // for
+        var recoded = new int [codes.length];
+        for (var i = 0; i < rows; i++) recoded [i] = (codes [i] < 0) ? codes [i] : remap [codes [i]];
+        codes  = recoded;
+        sorted = true;
+    } // resort
+
+    /********************************************************************************
+     * Return the number of values less than v (or less than or equal to v if inclusive),
+     * using binary search on the sorted values.
+     */
+    private int bound (String v, boolean inclusive)
+    {
+        int lo = 0, hi = values.size ();
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            var c   = values.get (mid).compareTo (v);
+            if (c < 0 || inclusive && c == 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        return lo;
+    } // bound
+
+} // DictionaryColumn
+
@@ -0,0 +1,311 @@
+
+/*****************************************************************************************
+ * @file  Distribution.java
+ *
+ * @author   John Miller
+ */
+
+import java.util.SplittableRandom;
+
+import static java.lang.Math.*;
+
+/*****************************************************************************************
+ * The Distribution class specifies how the values of an attribute are generated by the
+ * TupleGenerator.  Use the static factory methods (or parse) to create one:
+ *     uniform (ndv)                   integers 0 ... ndv-1 equally likely (controls NDV)
+ *     zipf (n, s)                     integers 0 ... n-1 where value r has weight 1 / (r+1)^s
+ *     zipf (s)                        for foreign keys: Zipfian over the referenced rows
+ *     normal (mean, sd)               Gaussian values
+ *     sequential (start, step)        start, start + step, ... by row number (unique)
+ *     correlated (attr, factor, sd)   factor * attr + Gaussian noise (same row)
+ * On a foreign key column, the distribution chooses which referenced row each tuple refers
+ * to (i.e., it controls the join fan-out), e.g., zipf (1.2) makes a few rows very popular.
+ */
+public abstract class Distribution
+{
+    /*************************************************************************************
+     * Draw the value for row j.
+     * @param rng     the random number generator for the cell
+     * @param j       the row number
+     * @param source  the value of the source column (correlated only), else null
+     * @return  the value (converted to the attribute's domain by the generator)
+     */
+    abstract double next (SplittableRandom rng, long j, Comparable source);
+
+    /*************************************************************************************
+     * Draw the position in [0, n) of the referenced row for row j (foreign keys).
+     * @param rng  the random number generator for the foreign key
+     * @param j    the row number
+     * @param n    the number of rows in the referenced table
+     */
+    long nextIndex (SplittableRandom rng, long j, long n)
+    {
+        return floorMod (round (next (rng, j, null)), n);
+    } // nextIndex
+
+    /*************************************************************************************
+     * Return whether distinct rows always get distinct values (required for primary keys).
+     */
+    boolean unique () { return false; }
+
+    /*************************************************************************************
+     * Return the column number of the source column, or -1 if there is none.
+     */
+    int source () { return -1; }
+
+    /*************************************************************************************
+     * Resolve attribute names used by this distribution to column numbers.
+     * @param attribute  the table's attributes
+     * @return  the bound distribution
+     */
+    Distribution bind (String [] attribute) { return this; }
+
+    /*************************************************************************************
+     * Check that the values for rows 0 until n fit the column's domain without losing
+     * their uniqueness (throwing an IllegalArgumentException if not).
+     * @param domain  the column's domain, e.g., "Integer"
+     * @param n       the number of rows to generate
+     */
+    void checkRange (String domain, long n) { }
+
+    //----------------------------------------------------------------------------------
+    // Factory Methods
+    //----------------------------------------------------------------------------------
+
+    /*************************************************************************************
+     * Uniformly distributed integers with ndv distinct values 0 ... ndv-1.
+     * @param ndv  the number of distinct values
+     */
+    public static Distribution uniform (long ndv)
+    {
+        if (ndv <= 0) throw new IllegalArgumentException ("uniform: ndv must be positive");
+        return new Distribution () {
+            double next (SplittableRandom rng, long j, Comparable source) { return rng.nextLong (ndv); }
+            long nextIndex (SplittableRandom rng, long j, long n) { return rng.nextLong (min (ndv, n)); }
+            public String toString () { return STR."uniform(\{ndv})"; }
+        };
+    } // uniform
+
+    /*************************************************************************************
+     * Zipf distributed integers 0 ... n-1, where value r has probability proportional to
+     * 1 / (r+1)^s.  On a foreign key column, n is capped by the referenced table's size.
+     * @param n  the number of distinct values
+     * @param s  the exponent (skew), e.g., 1.0 for classic Zipf
+     */
+    public static Distribution zipf (long n, double s)
+    {
+        if (n <= 0 || s <= 0.0) throw new IllegalArgumentException ("zipf: n and s must be positive");
+        return new Distribution () {
+            double next (SplittableRandom rng, long j, Comparable source) { return zipfRank (rng, n, s) - 1; }
+            long nextIndex (SplittableRandom rng, long j, long m) { return zipfRank (rng, min (n, m), s) - 1; }
+            public String toString () { return STR."zipf(\{n},\{s})"; }
+        };
+    } // zipf
+
+    /*************************************************************************************
+     * Zipf distribution over all the referenced rows (for foreign key fan-out skew).  When
+     * used on an ordinary column, it ranges over 0 ... 999999.
+     * @param s  the exponent (skew)
+     */
+    public static Distribution zipf (double s)
+    {
+        if (s <= 0.0) throw new IllegalArgumentException ("zipf: s must be positive");
+        return new Distribution () {
+            double next (SplittableRandom rng, long j, Comparable source) { return zipfRank (rng, 1000000, s) - 1; }
+            long nextIndex (SplittableRandom rng, long j, long m) { return zipfRank (rng, m, s) - 1; }
+            public String toString () { return STR."zipf(\{s})"; }
+        };
+    } // zipf
+
+    /*************************************************************************************
+     * Normally (Gaussian) distributed values.
+     * @param mean  the mean
+     * @param sd    the standard deviation
+     */
+    public static Distribution normal (double mean, double sd)
+    {
+        return new Distribution () {
+            double next (SplittableRandom rng, long j, Comparable source) { return mean + sd * rng.nextGaussian (); }
+            public String toString () { return STR."normal(\{mean},\{sd})"; }
+        };
+    } // normal
+
+    /*************************************************************************************
+     * Sequential values start + j * step for row j.  These are unique, so sequential may
+     * be used for primary keys; on a foreign key, rows are referenced round-robin.  The
+     * generator checks that the values of all the rows fit the column (e.g., an int for
+     * an Integer column), and a value overflowing a long throws an ArithmeticException.
+     * @param start  the first value
+     * @param step   the increment (non-zero)
+     */
+    public static Distribution sequential (long start, long step)
+    {
+        if (step == 0) throw new IllegalArgumentException ("sequential: step must be non-zero");
+        return new Distribution () {
+            double next (SplittableRandom rng, long j, Comparable source) { return value (j); }
+            long nextIndex (SplittableRandom rng, long j, long n) { return floorMod (value (j), n); }
+            long value (long j) { return Math.addExact (start, Math.multiplyExact (j, step)); }
+            boolean unique () { return true; }
+
+            void checkRange (String domain, long n)
+            {
+                if (n == 0) return;
+                long last;
+                try {
+                    last = value (n - 1);
+                } catch (ArithmeticException ex) {
+                    throw new IllegalArgumentException (STR."\{this}: \{n} rows overflow a long");
+                } // try
+                var lo = Math.min (start, last);
+                var hi = Math.max (start, last);
+                var limit = domain.equals ("Integer") ? Integer.MAX_VALUE : 1L << 53;   // exact as an int or a double
+                var floor = domain.equals ("Integer") ? Integer.MIN_VALUE : - (1L << 53);
+                if (lo < floor || hi > limit)
+                    throw new IllegalArgumentException (STR."\{this}: values for \{n} rows do not fit a unique \{domain}");
+            } // checkRange
+
+            public String toString () { return STR."sequential(\{start},\{step})"; }
+        };
+    } // sequential
+
+    /*************************************************************************************
+     * Values correlated with another (numeric) column of the same row:
+     * factor * value (attr) + Gaussian noise.  For String columns the trailing number of
+     * the value is used (e.g., 123 for "name123").
+     * @param attr    the source attribute
+     * @param factor  the multiplier for the source value
+     * @param sd      the standard deviation of the noise
+     */
+    public static Distribution correlated (String attr, double factor, double sd)
+    {
+        return new Correlated (attr, -1, factor, sd);
+    } // correlated
+
+    /*************************************************************************************
+     * Parse a distribution specification such as "zipf(1000,1.2)", "uniform(10)",
+     * "normal(50,10)", "sequential(1,1)" or "correlated(id,2,0.5)".  A "-" means the
+     * default (uniform random) generation, returned as null.
+     * @param spec  the specification to parse
+     */
+    public static Distribution parse (String spec)
+    {
+        if (spec == null || spec.equals ("-")) return null;
+        var open = spec.indexOf ('(');
+        if (open < 0 || ! spec.endsWith (")")) throw new IllegalArgumentException (STR."parse: bad distribution \{spec}");
+        var fn  = spec.substring (0, open);
+        var arg = spec.substring (open + 1, spec.length () - 1).split (",");
+        return switch (fn) {
+        case "uniform"    -> uniform (Long.parseLong (arg [0]));
+        case "zipf"       -> (arg.length == 1) ? zipf (Double.parseDouble (arg [0]))
+                                               : zipf (Long.parseLong (arg [0]), Double.parseDouble (arg [1]));
+        case "normal"     -> normal (Double.parseDouble (arg [0]), Double.parseDouble (arg [1]));
+        case "sequential" -> sequential (Long.parseLong (arg [0]), (arg.length > 1) ? Long.parseLong (arg [1]) : 1);
+        case "correlated" -> correlated (arg [0], Double.parseDouble (arg [1]), Double.parseDouble (arg [2]));
+        default           -> throw new IllegalArgumentException (STR."parse: unknown distribution \{fn}");
+        }; // switch
+    } // parse
+
+    //----------------------------------------------------------------------------------
+    // Correlated columns
+    //----------------------------------------------------------------------------------
+
+    /*************************************************************************************
+     * The Correlated class generates values from another column of the same row.
+     */
+    private static class Correlated
+            extends Distribution
+    {
+        private final String attr;                                  // source attribute
+        private final int    col;                                   // source column (once bound)
+        private final double factor;                                // multiplier
+        private final double sd;                                    // noise
+
+        Correlated (String attr, int col, double factor, double sd)
+        {
+            this.attr = attr; this.col = col; this.factor = factor; this.sd = sd;
+        } // constructor
+
+        double next (SplittableRandom rng, long j, Comparable source)
+        {
+            return factor * numeric (source) + sd * rng.nextGaussian ();
+        } // next
+
+        int source () { return col; }
+
+        Distribution bind (String [] attribute)
+        {
+            for (var k = 0; k < attribute.length; k++) {
+                if (attribute [k].equals (attr)) return new Correlated (attr, k, factor, sd);
+            } // for
+            throw new IllegalArgumentException (STR."correlated: unknown attribute \{attr}");
+        } // bind
+
+        public String toString () { return STR."correlated(\{attr},\{factor},\{sd})"; }
+
+    } // Correlated
+
+    //----------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------
+
+    /*************************************************************************************
+     * Convert a generated value to a number: numbers as is, strings by their trailing
+     * digits (0 if none).
+     * @param v  the value to convert
+     */
+    private static double numeric (Comparable v)
+    {
+        if (v instanceof Number num) return num.doubleValue ();
+        if (v == null) return 0.0;
+        var s = v.toString ();
+        var i = s.length ();
+        while (i > 0 && Character.isDigit (s.charAt (i - 1))) i--;
+        return (i == s.length ()) ? 0.0 : Double.parseDouble (s.substring (i));
+    } // numeric
+
+    /*************************************************************************************
+     * Draw a Zipf rank in 1 ... n using rejection-inversion sampling (Hormann and
+     * Derflinger 1996), which takes constant expected time and no tables for any n.
+     * @param rng  the random number generator
+     * @param n    the number of ranks
+     * @param s    the exponent
+     */
+    private static long zipfRank (SplittableRandom rng, long n, double s)
+    {
+        var hX1 = hIntegral (1.5, s) - 1.0;
+        var hN  = hIntegral (n + 0.5, s);
+        var cut = 2.0 - hIntegralInverse (hIntegral (2.5, s) - h (2.0, s), s);
+
+        while (true) {
+            var u = hN + rng.nextDouble () * (hX1 - hN);
+            var x = hIntegralInverse (u, s);
+            var k = max (1, min (n, (long) (x + 0.5)));
+            if (k - x <= cut || u >= hIntegral (k + 0.5, s) - h (k, s)) return k;
+        } // while
+    } // zipfRank
+
+    private static double h (double x, double s) { return exp (-s * log (x)); }
+
+    private static double hIntegral (double x, double s)
+    {
+        var logX = log (x);
+        return helper2 ((1.0 - s) * logX) * logX;
+    } // hIntegral
+
+    private static double hIntegralInverse (double x, double s)
+    {
+        var t = max (-1.0, x * (1.0 - s));
+        return exp (helper1 (t) * x);
+    } // hIntegralInverse
+
+    private static double helper1 (double x)                       // log1p (x) / x
+    {
+        return (abs (x) > 1E-8) ? log1p (x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    } // helper1
+
+    private static double helper2 (double x)                       // expm1 (x) / x
+    {
+        return (abs (x) > 1E-8) ? expm1 (x) / x : 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+    } // helper2
+
+} // Distribution
@@ -0,0 +1,132 @@
+
+/************************************************************************************
+ * @file Explain.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/************************************************************************************
+ * The `Explain` class shows how a relational algebra expression is evaluated: its
+ * operator tree, the algorithm each operator chose (e.g., scan vs. indexed select,
+ * nested loop vs. indexed vs. hash join) and the index type of each base table.
+ * In analyze mode, the actual rows, time and memory allocated by each operator are
+ * also shown.  Since the Table operators are evaluated eagerly, the expression is run
+ * and its operators are traced (on the calling thread) to build the tree.
+ *
+ * #usage Explain.analyze (() -> transcript.i_join ("studId", "id", student)
+ *                                          .select ("grade == A").project ("name"))
+ */
+public class Explain
+{
+    /** The operator calls traced on this thread (null when not explaining).
+     */
+    private static final ThreadLocal <List <Metrics.Call>> trace = new ThreadLocal <> ();
+
+    /** The result tables of the traced calls, to link operators to their inputs.
+     */
+    private static final ThreadLocal <Map <Table, Metrics.Call>> produced = new ThreadLocal <> ();
+
+    /************************************************************************************
+     * Return the plan of the query: its operator tree with the chosen algorithms.
+     *
+     * @param query  the query, e.g., () -> movie.select ("year == 1977").project ("title")
+     * @return  the plan, one line per operator or base table
+     */
+    public static String explain (Supplier <Table> query)
+    {
+        return plan (query, false);
+    } // explain
+
+    /************************************************************************************
+     * Return the plan of the query with the actual rows, time and memory allocated by
+     * each operator.
+     *
+     * @param query  the query, e.g., () -> movie.select ("year == 1977").project ("title")
+     * @return  the plan, one line per operator or base table
+     */
+    public static String analyze (Supplier <Table> query)
+    {
+        return plan (query, true);
+    } // analyze
+
+    /************************************************************************************
+     * Record an operator call, if the calling thread is explaining a query.
+     *
+     * @param call    the finished operator call
+     * @param result  its result table (null if none)
+     */
+    static void record (Metrics.Call call, Table result)
+    {
+        var calls = trace.get ();
+        if (calls == null) return;
+        calls.add (call);
+        if (result != null) produced.get ().put (result, call);
+    } // record
+
+    /************************************************************************************
+     * Run the query, tracing its operator calls, and format the operator tree.
+     *
+     * @param query    the query
+     * @param analyze  whether to show the actuals
+     * @return  the plan
+     */
+    private static String plan (Supplier <Table> query, boolean analyze)
+    {
+        var calls = new ArrayList <Metrics.Call> ();
+        var made  = new IdentityHashMap <Table, Metrics.Call> ();
+        trace.set (calls);
+        produced.set (made);
+        Table result;
+        try {
+            result = query.get ();
+        } finally {
+            trace.remove ();
+            produced.remove ();
+        } // try
+
+        var sb   = new StringBuilder ();
+        var root = (result == null) ? null : made.get (result);
+        if (root == null && ! calls.isEmpty ()) root = calls.get (calls.size () - 1);
+        if (root == null) {
+            if (result != null) leaf (sb, result, 0);
+            return sb.toString ();
+        } // if
+        format (sb, root, made, 0, analyze);
+        return sb.toString ();
+    } // plan
+
+    /************************************************************************************
+     * Format the operator call and (recursively) its inputs, indenting by depth.
+     */
+    private static void format (StringBuilder sb, Metrics.Call call, Map <Table, Metrics.Call> made,
+                                int depth, boolean analyze)
+    {
+        sb.append ("  ".repeat (depth)).append (depth > 0 ? "-> " : "")
+          .append (call.name).append (" (").append (call.args).append (")");
+        if (! call.detail.isEmpty ()) sb.append ("  [").append (call.detail).append ("]");
+        if (analyze) {
+            sb.append (STR."  rows = \{call.rowsOut}, time = \{String.format ("%.3f", call.nanos / 1E6)} ms")
+              .append (STR.", alloc = \{call.bytes / 1024} KB");
+        } // if
+        sb.append ('\n');
+        for (var t : call.inputs) {
+            var child = made.get (t);
+            if (child != null && child != call) format (sb, child, made, depth + 1, analyze);
+            else leaf (sb, t, depth + 1);
+        } // for
+    } // format
+
+    /************************************************************************************
+     * Format a base table, with its size and index type.
+     */
+    private static void leaf (StringBuilder sb, Table t, int depth)
+    {
+        sb.append ("  ".repeat (depth)).append (depth > 0 ? "-> " : "")
+          .append (STR."table \{t.getName ()}  [\{t.rows ()} rows, \{t.indexType ()}]\n");
+    } // leaf
+
+} // Explain
+
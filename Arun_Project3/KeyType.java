@@ -8,20 +8,28 @@
  */
 
 import java.io.Serializable;
+import java.util.Objects;
 
 import static java.lang.System.out;
 
 /*****************************************************************************************
  * The KeyType class provides a key type for handling both non-composite and composite keys.
  * A key is a minimal set of attributes that can be used to uniquely identify a tuple.
+ * The hash code is computed once and cached.  Use KeyType.of to get the compact forms
+ * specialized for one and two attribute keys, and a KeyType.Probe to look up keys taken
+ * from tuples without allocating a key per lookup.
  */
 public class KeyType
        implements Comparable <KeyType>, Serializable
 {
-    /** Array holding the attribute values for a particular key
+    /** Array holding the attribute values for a particular key (null in specialized forms)
      */
     private final Comparable [] key;
 
+    /** Cached hash code (0 => not computed yet)
+     */
+    private transient int hash;
+
     /*************************************************************************************
      * Construct an instance of KeyType from a Comparable array.  
      * @param _key  the primary key
@@ -42,21 +50,95 @@ public class KeyType
          for (var i = 1; i < key.length; i++) key [i] = keys [i-1];
     } // constructor
 
+    /*************************************************************************************
+     * Construct a KeyType whose values are held by a specialized subclass.
+     */
+    private KeyType ()
+    {
+         key = null;
+    } // constructor
+
+    /*************************************************************************************
+     * Make a key from the given values, using the compact form for one or two values.
+     * @param keys  the key values
+     * @return  the key
+     */
+    public static KeyType of (Comparable ... keys)
+    {
+        return switch (keys.length) {
+        case 1  -> new Single (keys [0]);
+        case 2  -> new Pair (keys [0], keys [1]);
+        default -> new KeyType (keys.clone ());
+        }; // switch
+    } // of
+
+    /*************************************************************************************
+     * Make a key from the values in the given columns of tuple t, using the compact form
+     * for one or two columns.
+     * @param t     the tuple
+     * @param cols  the column positions of the key attributes
+     * @return  the key
+     */
+    public static KeyType of (Comparable [] t, int [] cols)
+    {
+        switch (cols.length) {
+        case 1:  return new Single (t [cols [0]]);
+        case 2:  return new Pair (t [cols [0]], t [cols [1]]);
+        default:
+            var keyVal = new Comparable [cols.length];
+            for (var i = 0; i < keyVal.length; i++) keyVal [i] = t [cols [i]];
+            return new KeyType (keyVal);
+        } // switch
+    } // of
+
+    /*************************************************************************************
+     * Return the number of attribute values in this key.
+     */
+    public int size ()
+    {
+        return key.length;
+    } // size
+
+    /*************************************************************************************
+     * Return the i-th attribute value of this key.
+     * @param i  the position of the value
+     */
+    public Comparable get (int i)
+    {
+        return key [i];
+    } // get
+
     /*************************************************************************************
      * Compare two keys (negative => less than, zero => equals, positive => greater than).
+     * When one key is a prefix of the other, the shorter key is less.  A null value (e.g.,
+     * in a group-by key) is less than any other value.
      * @param k  the other key (to compare with this)
      * @return  resultant integer that's negative, zero or positive
      */
     @SuppressWarnings("unchecked")
     public int compareTo (KeyType k)
     {
-        for (var i = 0; i < key.length; i++) {
-            if (key [i].compareTo (k.key [i]) < 0) return -1;
-            if (key [i].compareTo (k.key [i]) > 0) return 1;
+        var n = size ();
+        var m = k.size ();
+        for (var i = 0; i < n && i < m; i++) {
+            var c = compare (get (i), k.get (i));
+            if (c != 0) return (c < 0) ? -1 : 1;
         } // for
-        return 0;
+        return Integer.compare (n, m);
     } // compareTo
 
+    /*************************************************************************************
+     * Compare two key values, with null less than any other value.
+     * @param x  the first value
+     * @param y  the second value
+     * @return  resultant integer that's negative, zero or positive
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare (Comparable x, Comparable y)
+    {
+        return (x == null) ? ((y == null) ? 0 : -1) : (y == null) ? 1 : x.compareTo (y);
+    } // compare
+
     /*************************************************************************************
      * Determine whether two keys are equal (equals must agree with compareTo).
      * @param k  the other key (to compare with this)
@@ -64,17 +146,21 @@ public class KeyType
      */
     public boolean equals (Object k)
     {
-        return compareTo ((KeyType) k) == 0;
+        return k instanceof KeyType kt && hashCode () == kt.hashCode () && compareTo (kt) == 0;
     } // equals
 
     /*************************************************************************************
      * Compute a hash code for this object (equal objects should produce the same hash code).
+     * The hash code is cached after the first call.
      * @return  an integer hash code value
      */
     public int hashCode ()
     {
-        var sum = 0;
-        for (var i = 0; i < key.length; i++) sum = 7 * sum + key [i].hashCode ();
+        var sum = hash;
+        if (sum == 0) {
+            for (var i = 0; i < size (); i++) sum = 7 * sum + Objects.hashCode (get (i));
+            hash = sum;
+        } // if
         return sum;
     } // hashCode
 
@@ -85,10 +171,109 @@ public class KeyType
     public String toString ()
     {
         var s = "Key (";
-        for (var i = 0; i < key.length; i++) s += " " + key [i];
+        for (var i = 0; i < size (); i++) s += " " + get (i);
         return s + (" )");
     } // toString
 
+    //----------------------------------------------------------------------------------
+    // Specialized forms
+    //----------------------------------------------------------------------------------
+
+    /*************************************************************************************
+     * The Single class holds a one attribute key directly (no array).
+     */
+    private static final class Single
+            extends KeyType
+    {
+        private final Comparable k0;
+
+        Single (Comparable _k0) { k0 = _k0; }
+
+        public int size () { return 1; }
+
+        public Comparable get (int i)
+        {
+            if (i != 0) throw new IndexOutOfBoundsException (i);
+            return k0;
+        } // get
+
+        @SuppressWarnings("unchecked")
+        public int compareTo (KeyType k)
+        {
+            if (k.size () != 1) return super.compareTo (k);
+            var c = compare (k0, k.get (0));
+            return (c < 0) ? -1 : (c > 0) ? 1 : 0;
+        } // compareTo
+
+    } // Single
+
+    /*************************************************************************************
+     * The Pair class holds a two attribute key directly (no array).
+     */
+    private static final class Pair
+            extends KeyType
+    {
+        private final Comparable k0;
+        private final Comparable k1;
+
+        Pair (Comparable _k0, Comparable _k1) { k0 = _k0; k1 = _k1; }
+
+        public int size () { return 2; }
+
+        public Comparable get (int i)
+        {
+            return switch (i) {
+            case 0  -> k0;
+            case 1  -> k1;
+            default -> throw new IndexOutOfBoundsException (i);
+            }; // switch
+        } // get
+
+    } // Pair
+
+    /*************************************************************************************
+     * The Probe class is a reusable key that views the key columns of a tuple in place.
+     * Point it at a tuple with 'on' and use it to look up an index, e.g.,
+     *     var probe = new KeyType.Probe (cols);
+     *     for (var t : tuples) index.get (probe.on (t));
+     * so no key is allocated per lookup.  A probe changes, so it must never be stored in
+     * a map or set; use 'copy' to get a key that may be stored.  Not thread-safe.
+     */
+    public static final class Probe
+            extends KeyType
+    {
+        private final int [] cols;                                    // key column positions
+        private Comparable [] tup;                                    // current tuple
+
+        /*********************************************************************************
+         * Construct a probe for keys in the given columns.
+         * @param _cols  the column positions of the key attributes
+         */
+        public Probe (int [] _cols) { cols = _cols; }
+
+        /*********************************************************************************
+         * Point this probe at tuple t.
+         * @param t  the tuple whose key is to be probed
+         * @return  this probe
+         */
+        public Probe on (Comparable [] t)
+        {
+            tup = t;
+            ((KeyType) this).hash = 0;
+            return this;
+        } // on
+
+        /*********************************************************************************
+         * Return an immutable copy of the current key.
+         */
+        public KeyType copy () { return of (tup, cols); }
+
+        public int size () { return cols.length; }
+
+        public Comparable get (int i) { return tup [cols [i]]; }
+
+    } // Probe
+
     /*************************************************************************************
      * The main method is used for testing purposes only.
      * @param args  the command-line arguments
@@ -0,0 +1,409 @@
+
+/************************************************************************************
+ * @file LinHashMap.java
+ *
+ * @author  John Miller
+ *
+ * compile javac --enable-preview --release 21 LinHashMap.java
+ * run     java --enable-preview LinHashMap
+ */
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The `LinHashMap` class provides hash maps that use the Linear Hashing algorithm.
+ * A hash table is created that grows one bucket at a time: whenever the load factor is
+ * exceeded, the bucket at the split pointer is split into itself and a new bucket at
+ * the end of the table, so no insert ever pays for rehashing the whole table.
+ * Buckets hold SLOTS entries whose cached hash codes fit in a cache line, chaining to
+ * overflow buckets when full.  The buckets are kept in fixed-size segments, so growing
+ * the table never copies the buckets either.
+ */
+public class LinHashMap <K, V>
+       extends AbstractMap <K, V>
+       implements Serializable, Cloneable
+{
+    private static final boolean DEBUG = false;                       // debug flag
+
+    private static final int    SLOTS    = 8;                         // number of slots per bucket (8 int hashes = 32 bytes)
+    private static final int    SEG_BITS = 10;                        // log2 of buckets per segment
+    private static final int    SEG_SIZE = 1 << SEG_BITS;             // number of buckets per segment
+    private static final int    INIT     = 4;                         // initial number of buckets (power of 2)
+    private static final double LOAD     = 0.75;                      // maximum load factor (keys / slots in home buckets)
+
+    private final Class <K> classK;                                   // The class for type K.
+    private final Class <V> classV;                                   // The class for type V.
+
+//-----------------------------------------------------------------------------------
+// Bucket inner class
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * The `Bucket` inner class defines buckets that are stored in the hash table.
+     * The hash codes are kept next to each other so a lookup scans one small array
+     * and only compares keys whose hash codes match.
+     */
+    private class Bucket implements Serializable
+    {
+        int       nKeys;                                              // number of active slots
+        int []    hash;                                               // cached hash codes
+        K []      key;                                                // array of keys
+        V []      value;                                              // array of values
+        Bucket    next;                                               // overflow chain
+
+        @SuppressWarnings("unchecked")
+        Bucket ()
+        {
+            hash  = new int [SLOTS];
+            key   = (K []) Array.newInstance (classK, SLOTS);
+            value = (V []) Array.newInstance (classV, SLOTS);
+        } // constructor
+
+        /****************************************************************************
+         * Find the slot holding key k (with hash code h) in this bucket, or -1.
+         * @param k  the key whose slot is sought
+         * @param h  its hash code
+         */
+        int find (Object k, int h)
+        {
+            for (var i = 0; i < nKeys; i++) {
+                if (hash [i] == h && (key [i] == k || key [i].equals (k))) return i;
+            } // for
+            return -1;
+        } // find
+
+        /****************************************************************************
+         * Add key k with hash code h and value v to the first bucket in this chain
+         * with room, allocating an overflow bucket if all are full.
+         * @param h  the hash code
+         * @param k  the key
+         * @param v  the value
+         */
+        void add (int h, K k, V v)
+        {
+            var b = this;
+            while (b.nKeys == SLOTS) {
+                if (b.next == null) b.next = new Bucket ();
+                b = b.next;
+            } // while
+            b.hash [b.nKeys] = h;
+            b.key [b.nKeys]  = k;
+            b.value [b.nKeys] = v;
+            b.nKeys += 1;
+        } // add
+
+    } // Bucket
+
+//-----------------------------------------------------------------------------------
+// Fields and constructors for LinHashMap class
+//-----------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private Bucket [][] seg = (Bucket [][]) new LinHashMap.Bucket [4][];   // segments of buckets
+    private int nBuckets = 0;                                         // number of buckets in use
+    private int mod1     = INIT;                                      // number of buckets at the start of this round
+    private int isplit   = 0;                                         // next bucket to split
+    private int kCount   = 0;                                         // number of keys in the map
+    private int count    = 0;                                         // counter for number of buckets accessed (for performance testing)
+
+    /********************************************************************************
+     * Construct an empty linear hash map.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     */
+    public LinHashMap (Class <K> _classK, Class <V> _classV)
+    {
+        classK = _classK;
+        classV = _classV;
+        for (var i = 0; i < INIT; i++) addBucket ();
+    } // constructor
+
+    /********************************************************************************
+     * Return the size (number of keys) in the linear hash map.
+     * @return  the size of the map
+     */
+    public int size () { return kCount; }
+
+//-----------------------------------------------------------------------------------
+// Retrieve values
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Return a set view of the entries as pairs of keys and values.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <> () {
+            public int size () { return kCount; }
+
+            public Iterator <Map.Entry <K, V>> iterator ()
+            {
+                return new Iterator <> () {
+                    int    i = -1;                                    // current home bucket
+                    Bucket b = null;                                  // current bucket in its chain
+                    int    j = 0;                                     // next slot in b
+
+                    public boolean hasNext ()
+                    {
+                        while (b == null || j >= b.nKeys) {
+                            if (b != null && b.next != null) b = b.next;
+                            else if (++i < nBuckets) b = bucket (i);
+                            else return false;
+                            j = 0;
+                        } // while
+                        return true;
+                    } // hasNext
+
+                    public Map.Entry <K, V> next ()
+                    {
+                        if (! hasNext ()) throw new NoSuchElementException ();
+                        var e = new AbstractMap.SimpleEntry <K, V> (b.key [j], b.value [j]);
+                        j += 1;
+                        return e;
+                    } // next
+                }; // Iterator
+            } // iterator
+        }; // AbstractSet
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up the value in the linear hash map.
+     * @param key  the key used for look up
+     * @return  the value associated with the key or null if not found
+     */
+    public V get (Object key)
+    {
+        var h = hash (key);
+        for (var b = bucket (address (h)); b != null; b = b.next) {
+            count += 1;
+            var i = b.find (key, h);
+            if (i >= 0) return b.value [i];
+        } // for
+        return null;
+    } // get
+
+    /********************************************************************************
+     * Return whether the linear hash map contains the given key.
+     * @param key  the key to look for
+     */
+    public boolean containsKey (Object key)
+    {
+        var h = hash (key);
+        for (var b = bucket (address (h)); b != null; b = b.next) {
+            if (b.find (key, h) >= 0) return true;
+        } // for
+        return false;
+    } // containsKey
+
+//-----------------------------------------------------------------------------------
+// Put and remove key-value pairs
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Put the key-value pair in the linear hash map.  When the load factor is exceeded,
+     * split the bucket at the split pointer (at most one split per put).
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if none
+     */
+    public V put (K key, V value)
+    {
+        var h    = hash (key);
+        var home = bucket (address (h));
+        for (var b = home; b != null; b = b.next) {                   // replace an existing key
+            var i = b.find (key, h);
+            if (i >= 0) {
+                var old = b.value [i];
+                b.value [i] = value;
+                return old;
+            } // if
+        } // for
+
+        home.add (h, key, value);
+        kCount += 1;
+        if (kCount > LOAD * SLOTS * nBuckets) split ();
+        return null;
+    } // put
+
+    /********************************************************************************
+     * Remove the given key from the linear hash map (buckets are not merged).
+     * @param key  the key to remove
+     * @return  the value that was associated with the key, or null if none
+     */
+    public V remove (Object key)
+    {
+        var h = hash (key);
+        for (var b = bucket (address (h)); b != null; b = b.next) {
+            var i = b.find (key, h);
+            if (i >= 0) {
+                var old  = b.value [i];
+                var last = b;                                         // fill the hole with the chain's last entry
+                while (last.next != null && last.next.nKeys > 0) last = last.next;
+                var l = last.nKeys - 1;
+                b.hash [i] = last.hash [l]; b.key [i] = last.key [l]; b.value [i] = last.value [l];
+                last.key [l] = null; last.value [l] = null;
+                last.nKeys -= 1;
+                kCount     -= 1;
+                return old;
+            } // if
+        } // for
+        return null;
+    } // remove
+
+    /********************************************************************************
+     * Remove all the keys from the linear hash map.
+     */
+    @SuppressWarnings("unchecked")
+    public void clear ()
+    {
+        seg      = (Bucket [][]) new LinHashMap.Bucket [4][];
+        nBuckets = 0;
+        mod1     = INIT;
+        isplit   = 0;
+        kCount   = 0;
+        for (var i = 0; i < INIT; i++) addBucket ();
+    } // clear
+
+//-----------------------------------------------------------------------------------
+// Private Methods
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Split the bucket at the split pointer: its keys are divided between itself and a
+     * new bucket at the end of the table using the next level's hash function.  When all
+     * the buckets of this round have been split, the number of buckets has doubled and
+     * a new round begins.
+     */
+    private void split ()
+    {
+        if (DEBUG) out.println (STR."split: bucket \{isplit}, level \{mod1}");
+
+        var old = bucket (isplit);
+        var hi  = addBucket ();
+        var lo  = new Bucket ();
+        var mod2 = mod1 << 1;
+
+        for (var b = old; b != null; b = b.next) {
+            for (var i = 0; i < b.nKeys; i++) {
+                var h = b.hash [i];
+                ((h & (mod2 - 1)) == isplit ? lo : hi).add (h, b.key [i], b.value [i]);
+            } // for
+        } // for
+        seg [isplit >>> SEG_BITS][isplit & (SEG_SIZE - 1)] = lo;
+
+        if (++isplit == mod1) {                                       // round complete
+            mod1   = mod2;
+            isplit = 0;
+        } // if
+    } // split
+
+    /********************************************************************************
+     * Append a new empty bucket to the end of the table (adding a segment if needed).
+     * @return  the new bucket
+     */
+    @SuppressWarnings("unchecked")
+    private Bucket addBucket ()
+    {
+        var s = nBuckets >>> SEG_BITS;
+        if (s == seg.length) seg = Arrays.copyOf (seg, 2 * seg.length);   // copies segment refs only
+        if (seg [s] == null) seg [s] = (Bucket []) Array.newInstance (Bucket.class, SEG_SIZE);
+        var b = new Bucket ();
+        seg [s][nBuckets & (SEG_SIZE - 1)] = b;
+        nBuckets += 1;
+        return b;
+    } // addBucket
+
+    /********************************************************************************
+     * Return the i-th home bucket.
+     * @param i  the bucket number
+     */
+    private Bucket bucket (int i)
+    {
+        return seg [i >>> SEG_BITS][i & (SEG_SIZE - 1)];
+    } // bucket
+
+    /********************************************************************************
+     * Return the home bucket number for hash code h: use this round's hash function,
+     * unless that bucket has already been split, in which case use the next round's.
+     * @param h  the hash code
+     */
+    private int address (int h)
+    {
+        var i = h & (mod1 - 1);
+        return (i < isplit) ? h & ((mod1 << 1) - 1) : i;
+    } // address
+
+    /********************************************************************************
+     * Return the hash code for the key, with its bits spread so the low bits used for
+     * addressing depend on the high bits as well.
+     * @param key  the key to hash
+     */
+    private static int hash (Object key)
+    {
+        var h = key.hashCode () * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    } // hash
+
+//-----------------------------------------------------------------------------------
+// Print/show the hash table
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Print the linear hash table, one home bucket (and its chain) per line.
+     */
+    void show ()
+    {
+        out.println (STR."LinHashMap: nBuckets = \{nBuckets}, mod1 = \{mod1}, isplit = \{isplit}");
+        for (var i = 0; i < nBuckets; i++) {
+            var sb = new StringBuilder (STR."\{i}:");
+            for (var b = bucket (i); b != null; b = b.next) {
+                sb.append (" [");
+                for (var j = 0; j < b.nKeys; j++) sb.append (" ").append (b.key [j]);
+                sb.append (" ]");
+            } // for
+            out.println (sb);
+        } // for
+        out.println ("-".repeat (60));
+    } // show
+
+//-----------------------------------------------------------------------------------
+// Main method for running/testing the linear hash map
+//-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * The main method used for testing.  Also test for more keys and with RANDOMLY true.
+     * @param  the command-line arguments (args[0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        var totalKeys = 40;
+        var RANDOMLY  = false;
+        var ht        = new LinHashMap <Integer, Integer> (Integer.class, Integer.class);
+        if (args.length == 1) totalKeys = Integer.valueOf (args[0]);
+
+        if (RANDOMLY) {
+            Random rng = new Random ();
+            for (var i = 1; i <= totalKeys; i += 1) ht.put (rng.nextInt (2 * totalKeys), i * i);
+        } else {
+            for (var i = 1; i <= totalKeys; i += 1) ht.put (i, i * i);
+        } // if
+
+        ht.show ();
+        for (var i = 0; i <= totalKeys; i++) {
+            out.println (STR."key = \{i}, value = \{ht.get (i)}");
+        } // for
+        out.println ("-------------------------------------------");
+        out.println (STR."number of keys in LinHashMap = \{ht.kCount}");
+        out.println ("-------------------------------------------");
+        out.println ("Average number of buckets accessed = " + ht.count / (double) totalKeys);
+        out.println ("-------------------------------------------");
+        out.println ("EntrySet: " + ht.entrySet ());
+        out.println ("-------------------------------------------");
+    } // main
+
+} // LinHashMap
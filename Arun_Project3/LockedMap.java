@@ -0,0 +1,94 @@
+
+/************************************************************************************
+ * @file LockedMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/************************************************************************************
+ * The `LockedMap` class wraps a map that is not thread-safe (e.g., LinHashMap or
+ * BpTreeMap) with a read-write lock, so that many readers may look up keys at the same
+ * time while writers put keys one at a time.  The entry set is a copy taken under the
+ * read lock.
+ */
+public class LockedMap <K, V>
+       extends AbstractMap <K, V>
+       implements Serializable
+{
+    private final Map <K, V> map;                                   // the wrapped map
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock ();
+
+    /********************************************************************************
+     * Construct a locked view of the given map, which should not be used directly.
+     * @param _map  the map to wrap
+     */
+    public LockedMap (Map <K, V> _map)
+    {
+        map = _map;
+    } // constructor
+
+    public int size ()
+    {
+        lock.readLock ().lock ();
+        try { return map.size (); } finally { lock.readLock ().unlock (); }
+    } // size
+
+    public V get (Object key)
+    {
+        lock.readLock ().lock ();
+        try { return map.get (key); } finally { lock.readLock ().unlock (); }
+    } // get
+
+    public boolean containsKey (Object key)
+    {
+        lock.readLock ().lock ();
+        try { return map.containsKey (key); } finally { lock.readLock ().unlock (); }
+    } // containsKey
+
+    public V put (K key, V value)
+    {
+        lock.writeLock ().lock ();
+        try { return map.put (key, value); } finally { lock.writeLock ().unlock (); }
+    } // put
+
+    /********************************************************************************
+     * Add the tuples at positions first (inclusive) to last (exclusive) to the wrapped
+     * map under the write lock, when it is a DIndex.TupleMap (which indexes positions).
+     * @param first  the first position
+     * @param last   the position after the last
+     * @return  whether the wrapped map is a TupleMap (otherwise nothing is added)
+     */
+    public boolean addAll (int first, int last)
+    {
+        if (! (map instanceof DIndex.TupleMap dmap)) return false;
+        lock.writeLock ().lock ();
+        try { dmap.addAll (first, last); } finally { lock.writeLock ().unlock (); }
+        return true;
+    } // addAll
+
+    public V remove (Object key)
+    {
+        lock.writeLock ().lock ();
+        try { return map.remove (key); } finally { lock.writeLock ().unlock (); }
+    } // remove
+
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        lock.readLock ().lock ();
+        try {
+            var copy = new ArrayList <Map.Entry <K, V>> (map.size ());
+            for (var e : map.entrySet ()) copy.add (new AbstractMap.SimpleImmutableEntry <> (e));
+            return new AbstractSet <> () {
+                public int size () { return copy.size (); }
+                public Iterator <Map.Entry <K, V>> iterator () { return copy.iterator (); }
+            }; // AbstractSet
+        } finally {
+            lock.readLock ().unlock ();
+        } // try
+    } // entrySet
+
+} // LockedMap
@@ -0,0 +1,332 @@
+
+/************************************************************************************
+ * @file Metrics.java
+ *
+ * @author  John Miller
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+import javax.management.ObjectName;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The `Metrics` class records, for each relational algebra operator (select, project,
+ * union, minus, the joins, insert, save/load, ...), the number of invocations, the
+ * rows in and out, the wall time, the bytes allocated (by the calling thread) and the
+ * index probes, along with a latency histogram (power of two buckets in nanoseconds).
+ * It also counts the node visits and splits of B+Trees and tracks their height.  The
+ * operators are registered as JMX MXBeans (domain "DBMS") as they are first used, so
+ * they may be watched with, e.g., jconsole; report prints them.
+ *
+ * An operator records its metrics as follows:
+ *     var call = Metrics.start ("select", condition, this);
+ *     ...
+ *     return call.end (result);
+ */
+public class Metrics
+{
+    /** Whether metrics are recorded.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    static final boolean ENABLED = true;
+
+    /** The number of latency buckets: bucket b holds times t with 2^(b-1) <= t < 2^b ns.
+     */
+    private static final int BUCKETS = 64;
+
+    /** The operators seen so far, by name.
+     */
+    private static final Map <String, Operator> ops = new ConcurrentHashMap <> ();
+
+    /** B+Tree node visits, node splits and the greatest height reached.
+     */
+    static final LongAdder      nodeVisits = new LongAdder ();
+    static final LongAdder      nodeSplits = new LongAdder ();
+    static final LongAccumulator treeHeight = new LongAccumulator (Math::max, 0);
+
+    /** Thread bean for the allocated bytes (if the JVM supports it).
+     */
+    private static final com.sun.management.ThreadMXBean threads =
+            (ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean tb
+             && tb.isThreadAllocatedMemorySupported ()) ? tb : null;
+
+    static {
+        if (ENABLED) register ("type=BpTree", new BpTree ());
+    } // static
+
+    //----------------------------------------------------------------------------------
+    // JMX interfaces
+    //----------------------------------------------------------------------------------
+
+    /** The metrics of an operator, as seen through JMX.
+     */
+    public interface OperatorMXBean
+    {
+        long getCalls ();
+        long getRowsIn ();
+        long getRowsOut ();
+        long getTotalNanos ();
+        long getAllocatedBytes ();
+        long getIndexProbes ();
+        long [] getLatencyHistogram ();
+        long getP50Nanos ();
+        long getP99Nanos ();
+        void reset ();
+    } // OperatorMXBean
+
+    /** The B+Tree metrics, as seen through JMX.
+     */
+    public interface BpTreeMXBean
+    {
+        long getNodeVisits ();
+        long getNodeSplits ();
+        long getMaxHeight ();
+    } // BpTreeMXBean
+
+    //----------------------------------------------------------------------------------
+    // Operators
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * The `Operator` class accumulates the metrics of one operator.
+     */
+    public static class Operator
+           implements OperatorMXBean
+    {
+        private final LongAdder calls   = new LongAdder ();
+        private final LongAdder rowsIn  = new LongAdder ();
+        private final LongAdder rowsOut = new LongAdder ();
+        private final LongAdder nanos   = new LongAdder ();
+        private final LongAdder bytes   = new LongAdder ();
+        private final LongAdder probes  = new LongAdder ();
+        private final AtomicLongArray latency = new AtomicLongArray (BUCKETS);
+
+        public long getCalls ()          { return calls.sum (); }
+        public long getRowsIn ()         { return rowsIn.sum (); }
+        public long getRowsOut ()        { return rowsOut.sum (); }
+        public long getTotalNanos ()     { return nanos.sum (); }
+        public long getAllocatedBytes () { return bytes.sum (); }
+        public long getIndexProbes ()    { return probes.sum (); }
+        public long getP50Nanos ()       { return percentile (0.50); }
+        public long getP99Nanos ()       { return percentile (0.99); }
+
+        public long [] getLatencyHistogram ()
+        {
+            var h = new long [BUCKETS];
+            for (var b = 0; b < BUCKETS; b++) h [b] = latency.get (b);
+            return h;
+        } // getLatencyHistogram
+
+        public void reset ()
+        {
+            calls.reset (); rowsIn.reset (); rowsOut.reset (); nanos.reset (); bytes.reset (); probes.reset ();
+            for (var b = 0; b < BUCKETS; b++) latency.set (b, 0);
+        } // reset
+
+        /********************************************************************************
+         * Return (the upper bound of the bucket holding) the given percentile of the
+         * latencies in nanoseconds.
+         * @param p  the fraction of calls, e.g., 0.99
+         */
+        long percentile (double p)
+        {
+            var h     = getLatencyHistogram ();
+            var total = 0L;
+            for (var c : h) total += c;
+            var seen = 0L;
+            for (var b = 0; b < BUCKETS; b++) {
+                seen += h [b];
+                if (seen > 0 && seen >= p * total) return (b == 0) ? 0 : (1L << b) - 1;
+            } // for
+            return 0;
+        } // percentile
+
+        /********************************************************************************
+         * Record one call of the operator.
+         */
+        void record (long in, long out, long ns, long alloc, long probed)
+        {
+            calls.increment ();
+            rowsIn.add (in);
+            rowsOut.add (out);
+            nanos.add (ns);
+            bytes.add (alloc);
+            probes.add (probed);
+            latency.incrementAndGet (Math.min (BUCKETS - 1, 64 - Long.numberOfLeadingZeros (ns)));
+        } // record
+
+    } // Operator
+
+    /************************************************************************************
+     * The `Call` class measures one invocation of an operator, from start to end.  It
+     * also carries what EXPLAIN shows: the arguments, the input tables and the algorithm
+     * the operator chose.
+     */
+    static class Call
+    {
+        final String   name;                                        // the operator
+        final String   args;                                        // its arguments
+        final Table [] inputs;                                      // its input tables
+        final long     rowsIn;
+        String         detail = "";                                 // the algorithm chosen
+        long           rowsOut, nanos, bytes;                       // the actuals (set by end)
+        private final Operator op;
+        private final long t0;
+        private final long a0;
+        private long probes = 0;
+
+        Call (String _name, String _args, Table [] _inputs, long _rowsIn)
+        {
+            name = _name; args = _args; inputs = _inputs; rowsIn = _rowsIn;
+            op = ENABLED ? operator (name) : null;
+            a0 = allocated ();
+            t0 = System.nanoTime ();
+        } // constructor
+
+        /********************************************************************************
+         * Count index probes made by the call.
+         * @param n  the number of probes
+         */
+        void probes (long n) { probes += n; }
+
+        /********************************************************************************
+         * Describe the algorithm the operator chose (for EXPLAIN).
+         * @param _detail  the algorithm, e.g., "indexed select (HASH_MAP)"
+         */
+        void detail (String _detail) { detail = _detail; }
+
+        /********************************************************************************
+         * End the call, which returned the table result (null counts as no rows).
+         * @param result  the result of the operator
+         * @return  the result
+         */
+        Table end (Table result)
+        {
+            finish ((result == null) ? 0 : result.rows ());
+            Explain.record (this, result);
+            return result;
+        } // end
+
+        /********************************************************************************
+         * End the call, which produced the given number of rows (but no table).
+         * @param _rowsOut  the number of rows produced
+         * @return  the number of rows produced
+         */
+        long end (long _rowsOut)
+        {
+            finish (_rowsOut);
+            Explain.record (this, null);
+            return _rowsOut;
+        } // end
+
+        /********************************************************************************
+         * Take the actuals and record them for the operator.
+         */
+        private void finish (long _rowsOut)
+        {
+            rowsOut = _rowsOut;
+            nanos   = System.nanoTime () - t0;
+            bytes   = allocated () - a0;
+            if (op != null) op.record (rowsIn, rowsOut, nanos, bytes, probes);
+        } // finish
+
+    } // Call
+
+    /************************************************************************************
+     * The `BpTree` class exposes the B+Tree counters.
+     */
+    private static class BpTree
+            implements BpTreeMXBean
+    {
+        public long getNodeVisits () { return nodeVisits.sum (); }
+        public long getNodeSplits () { return nodeSplits.sum (); }
+        public long getMaxHeight ()  { return treeHeight.get (); }
+    } // BpTree
+
+    //----------------------------------------------------------------------------------
+    // Public and package methods
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Start measuring a call of the named operator on the given tables.
+     * @param name    the operator's name
+     * @param args    its arguments (as shown by EXPLAIN)
+     * @param inputs  the tables it reads
+     */
+    static Call start (String name, String args, Table ... inputs)
+    {
+        var rowsIn = 0L;
+        for (var t : inputs) rowsIn += t.rows ();
+        return new Call (name, args, inputs, rowsIn);
+    } // start
+
+    /************************************************************************************
+     * Start measuring a call of the named operator that takes in the given rows (e.g.,
+     * an insert).
+     * @param name    the operator's name
+     * @param rowsIn  the number of rows it takes in
+     */
+    static Call start (String name, long rowsIn)
+    {
+        return new Call (name, "", new Table [0], rowsIn);
+    } // start
+
+    /************************************************************************************
+     * Return the metrics of the named operator, registering it with JMX on first use.
+     * @param name  the operator's name
+     */
+    public static Operator operator (String name)
+    {
+        return ops.computeIfAbsent (name, n -> {
+            var op = new Operator ();
+            register ("type=Operator,name=" + n, op);
+            return op;
+        });
+    } // operator
+
+    /************************************************************************************
+     * Print the metrics of the operators seen so far and of the B+Trees.
+     */
+    public static void report ()
+    {
+        out.println (String.format ("%-12s %8s %12s %12s %12s %14s %10s %10s %10s",
+                     "operator", "calls", "rows in", "rows out", "ms", "bytes", "probes", "p50 us", "p99 us"));
+        for (var e : new TreeMap <> (ops).entrySet ()) {
+            var op = e.getValue ();
+            out.println (String.format ("%-12s %8d %12d %12d %12.3f %14d %10d %10.1f %10.1f", e.getKey (),
+                         op.getCalls (), op.getRowsIn (), op.getRowsOut (), op.getTotalNanos () / 1E6,
+                         op.getAllocatedBytes (), op.getIndexProbes (), op.getP50Nanos () / 1E3, op.getP99Nanos () / 1E3));
+        } // for
+        out.println (STR."BpTree: node visits = \{nodeVisits.sum ()}, splits = \{nodeSplits.sum ()}, max height = \{treeHeight.get ()}");
+    } // report
+
+    /************************************************************************************
+     * Return the bytes allocated so far by the current thread (0 if not supported).
+     */
+    private static long allocated ()
+    {
+        return (threads == null) ? 0 : threads.getCurrentThreadAllocatedBytes ();
+    } // allocated
+
+    /************************************************************************************
+     * Register the MXBean under the "DBMS" domain with the given key properties.
+     * @param props  the key properties, e.g., "type=Operator,name=select"
+     * @param bean   the MXBean
+     */
+    private static void register (String props, Object bean)
+    {
+        try {
+            var name = new ObjectName ("DBMS:" + props);
+            var server = ManagementFactory.getPlatformMBeanServer ();
+            if (! server.isRegistered (name)) server.registerMBean (bean, name);
+        } catch (Exception ex) {
+            out.println (STR."Metrics.register: cannot register \{props}: \{ex}");
+        } // try
+    } // register
+
+} // Metrics
+
@@ -0,0 +1,384 @@
+
+/************************************************************************************
+ * @file OffHeapTupleList.java
+ *
+ * @author  John Miller
+ *
+ * compile javac --enable-preview --release 21 OffHeapTupleList.java
+ * run     java --enable-preview OffHeapTupleList
+ */
+
+import java.io.*;
+import java.lang.foreign.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static java.lang.System.out;
+import static java.lang.foreign.ValueLayout.*;
+
+/************************************************************************************
+ * The `OffHeapTupleList` class stores the tuples of a Table outside the Java heap, in
+ * memory segments managed by an Arena, so large tables add little to garbage collection
+ * pauses.  The values are stored column by column in chunks of CHUNK rows, each column
+ * with a fixed width (e.g., 4 bytes for an Integer).  Strings are stored UTF-8 encoded
+ * (length prefixed) in an off-heap string heap, with the column holding their address.
+ * Each chunk has a null bit per value.  Operators may read single values through the
+ * accessors (value, getLong, getDouble) without creating the tuple, while get (i)
+ * creates the tuple (Comparable []) on demand.  Like TupleList, one writer may append
+ * while readers scan up to the size watermark.
+ */
+public class OffHeapTupleList
+       extends AbstractList <Comparable []>
+       implements RandomAccess, Serializable
+{
+    private static final int CHUNK_BITS = 16;                       // log2 of rows per chunk
+    private static final int CHUNK      = 1 << CHUNK_BITS;          // rows per chunk
+    private static final int HEAP_CHUNK = 1 << 20;                  // bytes per string heap chunk (at least)
+
+    private final Class [] domain;                                  // the domains of the columns
+    private final int []   width;                                   // the width in bytes of each column
+    private final char []  kind;                                    // type code of each column (see kindOf)
+
+    private transient Arena arena;                                  // owns all the segments
+    private transient volatile Chunk [] dir;                        // directory of chunks
+    private transient volatile MemorySegment [] heap;               // string heap chunks
+    private transient int heapPos;                                  // next free byte in the last heap chunk
+    private transient volatile int size;                            // number of tuples (watermark)
+
+    /********************************************************************************
+     * The `Chunk` class holds the column segments and null bits for CHUNK rows.
+     */
+    private static class Chunk
+    {
+        final MemorySegment [] col;                                 // one segment per column
+        final MemorySegment    nulls;                               // null bits, column-major
+
+        Chunk (MemorySegment [] col, MemorySegment nulls) { this.col = col; this.nulls = nulls; }
+
+    } // Chunk
+
+    /********************************************************************************
+     * Construct an empty off-heap tuple list for tuples with the given domains.
+     * @param _domain  the domains of the attributes (Integer, Long, Short, Byte, Double,
+     *                 Float, Character or String)
+     */
+    public OffHeapTupleList (Class [] _domain)
+    {
+        domain = _domain;
+        width  = new int [domain.length];
+        kind   = new char [domain.length];
+        for (var j = 0; j < domain.length; j++) {
+            kind [j]  = kindOf (domain [j]);
+            width [j] = switch (kind [j]) {
+                case 'B' -> 1;
+                case 'S', 'C' -> 2;
+                case 'I', 'F' -> 4;
+                default  -> 8;                                      // J, D and strings (heap address)
+            }; // switch
+        } // for
+        init ();
+    } // constructor
+
+    /********************************************************************************
+     * Return the number of tuples in the list (the current watermark).
+     */
+    public int size () { return size; }
+
+    /********************************************************************************
+     * Get (create) the tuple at position i.
+     * @param i  the position of the tuple
+     */
+    public Comparable [] get (int i)
+    {
+        check (i);
+        var c = dir [i >>> CHUNK_BITS];
+        var r = i & (CHUNK - 1);
+        var t = new Comparable [domain.length];
+        for (var j = 0; j < t.length; j++) t [j] = read (c, r, j);
+        return t;
+    } // get
+
+    /********************************************************************************
+     * Get the value of column j of the tuple at position i (boxed, possibly null).
+     * @param i  the position of the tuple
+     * @param j  the column
+     */
+    public Comparable value (int i, int j)
+    {
+        check (i);
+        return read (dir [i >>> CHUNK_BITS], i & (CHUNK - 1), j);
+    } // value
+
+    /********************************************************************************
+     * Get the value of integer column j (Long, Integer, Short, Byte) of tuple i without
+     * boxing (0 for null).
+     * @param i  the position of the tuple
+     * @param j  the column
+     */
+    public long getLong (int i, int j)
+    {
+        check (i);
+        var s   = dir [i >>> CHUNK_BITS].col [j];
+        var off = (long) (i & (CHUNK - 1)) * width [j];
+        return switch (kind [j]) {
+            case 'B' -> s.get (JAVA_BYTE, off);
+            case 'S' -> s.get (JAVA_SHORT_UNALIGNED, off);
+            case 'I' -> s.get (JAVA_INT_UNALIGNED, off);
+            case 'J' -> s.get (JAVA_LONG_UNALIGNED, off);
+            default  -> throw new IllegalArgumentException (STR."getLong: column \{j} is \{domain [j].getSimpleName ()}");
+        }; // switch
+    } // getLong
+
+    /********************************************************************************
+     * Get the value of numeric column j of tuple i as a double without boxing (0 for
+     * null).
+     * @param i  the position of the tuple
+     * @param j  the column
+     */
+    public double getDouble (int i, int j)
+    {
+        check (i);
+        var s   = dir [i >>> CHUNK_BITS].col [j];
+        var off = (long) (i & (CHUNK - 1)) * width [j];
+        return switch (kind [j]) {
+            case 'F' -> s.get (JAVA_FLOAT_UNALIGNED, off);
+            case 'D' -> s.get (JAVA_DOUBLE_UNALIGNED, off);
+            default  -> getLong (i, j);
+        }; // switch
+    } // getDouble
+
+    /********************************************************************************
+     * Append tuple t to the end of the list, copying its values off-heap.  Only one
+     * thread may append at a time, but readers need no lock.
+     * @param t  the tuple to append
+     * @return  true
+     */
+    public boolean add (Comparable [] t)
+    {
+        var n = size;
+        var k = n >>> CHUNK_BITS;
+        var d = dir;
+        if (k == d.length) d = Arrays.copyOf (d, 2 * d.length);
+        if (d [k] == null) d [k] = newChunk ();
+        var c = d [k];
+        var r = n & (CHUNK - 1);
+        for (var j = 0; j < domain.length; j++) write (c, r, j, t [j]);
+        dir  = d;                                                   // publish the directory, then
+        size = n + 1;                                               // the new watermark
+        return true;
+    } // add
+
+    /********************************************************************************
+     * Iterate over a snapshot of the tuples present when the iterator is created.
+     */
+    public Iterator <Comparable []> iterator ()
+    {
+        var n = size;
+        return new Iterator <> () {
+            int i = 0;
+            public boolean hasNext () { return i < n; }
+            public Comparable [] next ()
+            {
+                if (i >= n) throw new NoSuchElementException ();
+                return get (i++);
+            } // next
+        }; // Iterator
+    } // iterator
+
+    /********************************************************************************
+     * Return the number of off-heap bytes in use (columns, null bits and strings).
+     */
+    public long offHeapBytes ()
+    {
+        long bytes = 0;
+        for (var c : dir) {
+            if (c == null) continue;
+            for (var s : c.col) bytes += s.byteSize ();
+            bytes += c.nulls.byteSize ();
+        } // for
+        for (var h : heap) if (h != null) bytes += h.byteSize ();
+        return bytes;
+    } // offHeapBytes
+
+    //-----------------------------------------------------------------------------------
+    // Private Methods
+    //-----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Create the (empty) off-heap storage.  The automatic arena frees the segments once
+     * this list is no longer reachable.
+     */
+    private void init ()
+    {
+        arena   = Arena.ofAuto ();
+        dir     = new Chunk [16];
+        heap    = new MemorySegment [0];
+        heapPos = HEAP_CHUNK;
+        size    = 0;
+    } // init
+
+    /********************************************************************************
+     * Return the type code for a domain: the JVM descriptor letter for the primitive
+     * wrappers and 'T' for strings.
+     * @param dom  the domain
+     */
+    private static char kindOf (Class dom)
+    {
+        if (dom == Integer.class)   return 'I';
+        if (dom == Long.class)      return 'J';
+        if (dom == Short.class)     return 'S';
+        if (dom == Byte.class)      return 'B';
+        if (dom == Double.class)    return 'D';
+        if (dom == Float.class)     return 'F';
+        if (dom == Character.class) return 'C';
+        if (dom == String.class)    return 'T';
+        throw new IllegalArgumentException (STR."OffHeapTupleList: unsupported domain \{dom}");
+    } // kindOf
+
+    private void check (int i)
+    {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException (i);
+    } // check
+
+    /********************************************************************************
+     * Allocate a new chunk (the null bits are zeroed by allocation).
+     */
+    private Chunk newChunk ()
+    {
+        var col = new MemorySegment [domain.length];
+        for (var j = 0; j < col.length; j++) col [j] = arena.allocate ((long) CHUNK * width [j], 8);
+        return new Chunk (col, arena.allocate ((long) domain.length * CHUNK / 8, 8));
+    } // newChunk
+
+    /********************************************************************************
+     * Read the value of column j in row r of chunk c.
+     */
+    private Comparable read (Chunk c, int r, int j)
+    {
+        var bit = (long) j * CHUNK + r;
+        if ((c.nulls.get (JAVA_BYTE, bit >>> 3) & (1 << (bit & 7))) != 0) return null;
+        var s   = c.col [j];
+        var off = (long) r * width [j];
+        return switch (kind [j]) {
+            case 'I' -> s.get (JAVA_INT_UNALIGNED, off);
+            case 'J' -> s.get (JAVA_LONG_UNALIGNED, off);
+            case 'S' -> s.get (JAVA_SHORT_UNALIGNED, off);
+            case 'B' -> s.get (JAVA_BYTE, off);
+            case 'D' -> s.get (JAVA_DOUBLE_UNALIGNED, off);
+            case 'F' -> s.get (JAVA_FLOAT_UNALIGNED, off);
+            case 'C' -> s.get (JAVA_CHAR_UNALIGNED, off);
+            default  -> readString (s.get (JAVA_LONG_UNALIGNED, off));
+        }; // switch
+    } // read
+
+    /********************************************************************************
+     * Write value v to column j in row r of chunk c.
+     */
+    private void write (Chunk c, int r, int j, Comparable v)
+    {
+        if (v == null) {
+            var bit = (long) j * CHUNK + r;
+            c.nulls.set (JAVA_BYTE, bit >>> 3, (byte) (c.nulls.get (JAVA_BYTE, bit >>> 3) | (1 << (bit & 7))));
+            return;
+        } // if
+        var s   = c.col [j];
+        var off = (long) r * width [j];
+        switch (kind [j]) {
+            case 'I' -> s.set (JAVA_INT_UNALIGNED, off, (Integer) v);
+            case 'J' -> s.set (JAVA_LONG_UNALIGNED, off, (Long) v);
+            case 'S' -> s.set (JAVA_SHORT_UNALIGNED, off, (Short) v);
+            case 'B' -> s.set (JAVA_BYTE, off, (Byte) v);
+            case 'D' -> s.set (JAVA_DOUBLE_UNALIGNED, off, (Double) v);
+            case 'F' -> s.set (JAVA_FLOAT_UNALIGNED, off, (Float) v);
+            case 'C' -> s.set (JAVA_CHAR_UNALIGNED, off, (Character) v);
+            default  -> s.set (JAVA_LONG_UNALIGNED, off, writeString ((String) v));
+        } // switch
+    } // write
+
+    /********************************************************************************
+     * Copy string str to the string heap and return its address (heap chunk in the
+     * high 32 bits, offset in the low 32 bits).
+     * @param str  the string to store
+     */
+    private long writeString (String str)
+    {
+        var b = str.getBytes (StandardCharsets.UTF_8);
+        var need = 4 + b.length;
+        if (heap.length == 0 || heapPos + need > heap [heap.length - 1].byteSize ()) {
+            var h = Arrays.copyOf (heap, heap.length + 1);
+            h [heap.length] = arena.allocate (Math.max (HEAP_CHUNK, need), 8);
+            heap    = h;
+            heapPos = 0;
+        } // if
+        var seg = heap [heap.length - 1];
+        seg.set (JAVA_INT_UNALIGNED, heapPos, b.length);
+        MemorySegment.copy (b, 0, seg, JAVA_BYTE, heapPos + 4, b.length);
+        var addr = ((long) (heap.length - 1) << 32) | heapPos;
+        heapPos += need;
+        return addr;
+    } // writeString
+
+    /********************************************************************************
+     * Read the string at the given string heap address.
+     * @param addr  the address returned by writeString
+     */
+    private String readString (long addr)
+    {
+        var seg = heap [(int) (addr >>> 32)];
+        var pos = addr & 0xFFFFFFFFL;
+        var len = seg.get (JAVA_INT_UNALIGNED, pos);
+        var b   = new byte [len];
+        MemorySegment.copy (seg, JAVA_BYTE, pos + 4, b, 0, len);
+        return new String (b, StandardCharsets.UTF_8);
+    } // readString
+
+    //-----------------------------------------------------------------------------------
+    // Serialization (the segments are rebuilt when read back)
+    //-----------------------------------------------------------------------------------
+
+    private void writeObject (ObjectOutputStream oos) throws IOException
+    {
+        oos.defaultWriteObject ();
+        var n = size;
+        oos.writeInt (n);
+        for (var i = 0; i < n; i++) oos.writeObject (get (i));
+    } // writeObject
+
+    private void readObject (ObjectInputStream ois) throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        init ();
+        var n = ois.readInt ();
+        for (var i = 0; i < n; i++) add ((Comparable []) ois.readObject ());
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing: store tuples off-heap and read them back.
+     * @param args  the command-line arguments (args[0] gives number of tuples)
+     */
+    public static void main (String [] args) throws Exception
+    {
+        var n    = (args.length == 1) ? Integer.valueOf (args[0]) : 200000;
+        var list = new OffHeapTupleList (new Class [] { Integer.class, String.class, Double.class, Character.class });
+        for (var i = 0; i < n; i++) {
+            list.add (new Comparable [] { i, (i % 7 == 0) ? null : STR."name\{i}", i * 0.5, (char) ('a' + i % 26) });
+        } // for
+
+        var bad = 0;
+        for (var i = 0; i < n; i++) {
+            var t = list.get (i);
+            if ((Integer) t [0] != i || list.getLong (i, 0) != i || list.getDouble (i, 2) != i * 0.5
+                || ! Objects.equals (t [1], (i % 7 == 0) ? null : STR."name\{i}")
+                || (Character) t [3] != (char) ('a' + i % 26)) bad++;
+        } // for
+
+        var bytes = new ByteArrayOutputStream ();
+        try (var oos = new ObjectOutputStream (bytes)) { oos.writeObject (list); }
+        var copy = (OffHeapTupleList) new ObjectInputStream (new ByteArrayInputStream (bytes.toByteArray ())).readObject ();
+        for (var i = 0; i < n; i += 997) if (! Arrays.equals (list.get (i), copy.get (i))) bad++;
+
+        out.println (STR."tuples = \{list.size ()}, off-heap bytes = \{list.offHeapBytes ()}, mismatches (should be 0) = \{bad}");
+        out.println (STR."first tuples: \{Arrays.toString (list.get (0))} \{Arrays.toString (list.get (1))}");
+    } // main
+
+} // OffHeapTupleList
@@ -0,0 +1,123 @@
+
+/************************************************************************************
+ * @file ResultCache.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+
+/************************************************************************************
+ * The `ResultCache` class keeps the result tables of recent queries, keyed on the
+ * operator, its (normalized) arguments and the identities and versions of its input
+ * tables, so repeating a query on unchanged tables returns the earlier result.  Since
+ * an insert bumps a table's version, results for older versions are never hit again;
+ * they are dropped when the table changes and otherwise age out.  Eviction is least
+ * recently used (LRU) once there are more than capacity results, and results with
+ * more than maxRows tuples are not kept.  Hits, misses and evictions are counted.
+ */
+public class ResultCache
+{
+    /** A cached result with the version it had when cached (a caller could insert
+     *  into the result table, which must then no longer be handed out).
+     */
+    private record Entry (Table result, long version) { }
+
+    private final int capacity;                                     // maximum number of results
+    private final int maxRows;                                      // maximum tuples in a result
+    private final LinkedHashMap <List <Object>, Entry> map;         // in LRU (access) order
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /********************************************************************************
+     * Construct an empty result cache.
+     * @param _capacity  the maximum number of results kept (0 disables the cache)
+     * @param _maxRows   the maximum number of tuples in a result kept
+     */
+    public ResultCache (int _capacity, int _maxRows)
+    {
+        capacity = _capacity;
+        maxRows  = _maxRows;
+        map = new LinkedHashMap <> (16, 0.75f, true) {
+            protected boolean removeEldestEntry (Map.Entry <List <Object>, Entry> eldest)
+            {
+                if (size () <= capacity) return false;
+                evictions++;
+                return true;
+            } // removeEldestEntry
+        }; // LinkedHashMap
+    } // constructor
+
+    /********************************************************************************
+     * Return the result cached for the given query key, or null if there is none.
+     * @param key  the query key (operator, arguments, input identities and versions)
+     */
+    synchronized Table get (List <Object> key)
+    {
+        if (capacity == 0) return null;
+        var e = map.get (key);
+        if (e != null && e.result.version () != e.version) {      // the result was changed
+            map.remove (key);
+            e = null;
+        } // if
+        if (e == null) { misses++; return null; }
+        hits++;
+        return e.result;
+    } // get
+
+    /********************************************************************************
+     * Cache the result of the query with the given key (unless it is too large).
+     * @param key     the query key
+     * @param result  the query's result table
+     * @return  the result table
+     */
+    synchronized Table put (List <Object> key, Table result)
+    {
+        if (capacity > 0 && result.rows () <= maxRows) map.put (key, new Entry (result, result.version ()));
+        return result;
+    } // put
+
+    /********************************************************************************
+     * Drop the results whose query key mentions the given table identity (called when
+     * the table changes, as those results can no longer be hit).
+     * @param id  the table's identity
+     */
+    synchronized void invalidate (long id)
+    {
+        map.keySet ().removeIf (k -> k.contains (id));
+    } // invalidate
+
+    /********************************************************************************
+     * Drop all the cached results.
+     */
+    public synchronized void clear () { map.clear (); }
+
+    /********************************************************************************
+     * Return the number of results cached.
+     */
+    public synchronized int size () { return map.size (); }
+
+    /********************************************************************************
+     * Return the number of lookups that found a result.
+     */
+    public synchronized long hits () { return hits; }
+
+    /********************************************************************************
+     * Return the number of lookups that found no result.
+     */
+    public synchronized long misses () { return misses; }
+
+    /********************************************************************************
+     * Return the number of results evicted to stay within capacity.
+     */
+    public synchronized long evictions () { return evictions; }
+
+    /********************************************************************************
+     * Return the counters as a string.
+     */
+    public synchronized String toString ()
+    {
+        return STR."ResultCache (size = \{map.size ()}, hits = \{hits}, misses = \{misses}, evictions = \{evictions})";
+    } // toString
+
+} // ResultCache
+
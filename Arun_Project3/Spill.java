@@ -0,0 +1,226 @@
+
+/************************************************************************************
+ * @file Spill.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/************************************************************************************
+ * The `Spill` class writes tuples to a temporary file and reads them back, for
+ * operators whose working data may not fit in memory (e.g., the sorted runs of an
+ * external merge sort or the partitions of a hash join).  Values are written with a
+ * one byte tag for their type (common domains are written directly, others are
+ * serialized), so a spilled tuple takes about as many bytes as its values.  The file
+ * is deleted when the spill is closed.
+ */
+class Spill
+      implements Closeable
+{
+    private static final int BUFFER = 1 << 16;                     // bytes buffered for reading/writing
+
+    private final File file;                                        // the temporary file
+    private DataOutputStream out;                                   // its writer (null once read)
+    private DataInputStream  in;                                    // its reader
+    private int rows = 0;                                           // number of tuples written
+
+    /********************************************************************************
+     * Construct a spill to a new temporary file.
+     * @param prefix  the prefix for the file's name
+     */
+    Spill (String prefix) throws IOException
+    {
+        file = File.createTempFile (prefix, ".spill");
+        file.deleteOnExit ();
+        out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (file), BUFFER));
+    } // constructor
+
+    /********************************************************************************
+     * Write tuple t to the end of the spill.
+     * @param t  the tuple to write
+     */
+    void write (Comparable [] t) throws IOException
+    {
+        writeTuple (out, t);
+        rows++;
+    } // write
+
+    /********************************************************************************
+     * Return the number of tuples written.
+     */
+    int rows () { return rows; }
+
+    /********************************************************************************
+     * Finish writing and iterate over the tuples in the order written.  The spill may
+     * only be read once.
+     */
+    Iterator <Comparable []> read () throws IOException
+    {
+        out.close ();
+        out = null;
+        in  = new DataInputStream (new BufferedInputStream (new FileInputStream (file), BUFFER));
+        return new Iterator <Comparable []> () {
+            int left = rows;
+
+            public boolean hasNext () { return left > 0; }
+
+            public Comparable [] next ()
+            {
+                if (left == 0) throw new NoSuchElementException ();
+                try {
+                    left--;
+                    return readTuple (in);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException ("Spill: cannot read " + file, ex);
+                } // try
+            } // next
+        }; // Iterator
+    } // read
+
+    /********************************************************************************
+     * Close the spill and delete its file.
+     */
+    public void close ()
+    {
+        try {
+            if (out != null) out.close ();
+            if (in != null) in.close ();
+        } catch (IOException ex) {
+            System.out.println ("Spill.close: IO Exception");
+        } // try
+        file.delete ();
+    } // close
+
+    /********************************************************************************
+     * Merge the spills, each holding tuples sorted in the given order, into one sorted
+     * iterator (a k-way merge using a priority queue of the runs' next tuples).  Ties go
+     * to the earlier run, so the merge is stable.  The spills are closed at the end.
+     * @param runs   the sorted runs
+     * @param order  the order they are sorted in
+     */
+    static Iterator <Comparable []> merge (List <Spill> runs, Comparator <Comparable []> order)
+            throws IOException
+    {
+        record Head (Comparable [] t, int run) { }
+        var iters = new ArrayList <Iterator <Comparable []>> ();
+        var heap  = new PriorityQueue <Head> ((a, b) -> {
+            var c = order.compare (a.t, b.t);
+            return (c != 0) ? c : Integer.compare (a.run, b.run);
+        });
+        for (var r = 0; r < runs.size (); r++) {
+            var it = runs.get (r).read ();
+            iters.add (it);
+            if (it.hasNext ()) heap.add (new Head (it.next (), r));
+        } // for
+
+        return new Iterator <Comparable []> () {
+            public boolean hasNext ()
+            {
+                if (heap.isEmpty ()) for (var run : runs) run.close ();
+                return ! heap.isEmpty ();
+            } // hasNext
+
+            public Comparable [] next ()
+            {
+                var h  = heap.remove ();
+                var it = iters.get (h.run);
+                if (it.hasNext ()) heap.add (new Head (it.next (), h.run));
+                return h.t;
+            } // next
+        }; // Iterator
+    } // merge
+
+    //----------------------------------------------------------------------------------
+    // Tuple encoding
+    //----------------------------------------------------------------------------------
+
+    private static final byte NULL = 0, INT = 1, LONG = 2, DOUBLE = 3, FLOAT = 4, SHORT = 5,
+                              BYTE = 6, CHAR = 7, BOOL = 8, STRING = 9, OBJECT = 10;
+
+    /********************************************************************************
+     * Write tuple t: its arity, then each value as a type tag followed by the value.
+     * @param out  the output to write to
+     * @param t    the tuple to write
+     */
+    static void writeTuple (DataOutput out, Comparable [] t) throws IOException
+    {
+        out.writeShort (t.length);
+        for (var v : t) {
+            switch (v) {
+                case null -> out.writeByte (NULL);
+                case Integer x -> { out.writeByte (INT); out.writeInt (x); }
+                case Long x -> { out.writeByte (LONG); out.writeLong (x); }
+                case Double x -> { out.writeByte (DOUBLE); out.writeDouble (x); }
+                case Float x -> { out.writeByte (FLOAT); out.writeFloat (x); }
+                case Short x -> { out.writeByte (SHORT); out.writeShort (x); }
+                case Byte x -> { out.writeByte (BYTE); out.writeByte (x); }
+                case Character x -> { out.writeByte (CHAR); out.writeChar (x); }
+                case Boolean x -> { out.writeByte (BOOL); out.writeBoolean (x); }
+                case String x -> { out.writeByte (STRING); writeBytes (out, x.getBytes (UTF_8)); }
+                default -> {
+                    var bytes = new ByteArrayOutputStream ();
+                    try (var oos = new ObjectOutputStream (bytes)) { oos.writeObject (v); }
+                    out.writeByte (OBJECT);
+                    writeBytes (out, bytes.toByteArray ());
+                } // default
+            } // switch
+        } // for
+    } // writeTuple
+
+    /********************************************************************************
+     * Read a tuple written by writeTuple.
+     * @param in  the input to read from
+     */
+    static Comparable [] readTuple (DataInput in) throws IOException
+    {
+        var t = new Comparable [in.readShort ()];
+        for (var j = 0; j < t.length; j++) {
+            t [j] = switch (in.readByte ()) {
+                case NULL   -> null;
+                case INT    -> in.readInt ();
+                case LONG   -> in.readLong ();
+                case DOUBLE -> in.readDouble ();
+                case FLOAT  -> in.readFloat ();
+                case SHORT  -> in.readShort ();
+                case BYTE   -> in.readByte ();
+                case CHAR   -> in.readChar ();
+                case BOOL   -> in.readBoolean ();
+                case STRING -> new String (readBytes (in), UTF_8);
+                case OBJECT -> {
+                    try (var ois = new ObjectInputStream (new ByteArrayInputStream (readBytes (in)))) {
+                        yield (Comparable) ois.readObject ();
+                    } catch (ClassNotFoundException ex) {
+                        throw new IOException ("Spill: unknown class", ex);
+                    } // try
+                } // case
+                default -> throw new IOException ("Spill: bad type tag");
+            }; // switch
+        } // for
+        return t;
+    } // readTuple
+
+    /********************************************************************************
+     * Write a length-prefixed array of bytes.
+     */
+    private static void writeBytes (DataOutput out, byte [] b) throws IOException
+    {
+        out.writeInt (b.length);
+        out.write (b);
+    } // writeBytes
+
+    /********************************************************************************
+     * Read a length-prefixed array of bytes.
+     */
+    private static byte [] readBytes (DataInput in) throws IOException
+    {
+        var b = new byte [in.readInt ()];
+        in.readFully (b);
+        return b;
+    } // readBytes
+
+} // Spill
+
@@ -10,6 +10,11 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -34,9 +39,13 @@ public class Table
      */
     private static final String EXT = ".dbf";
 
-    /** Counter for naming temporary tables.
+    /** Counter for naming temporary tables (shared by all threads).
      */
-    private static int count = 0;
+    private static final AtomicInteger count = new AtomicInteger ();
+
+    /** Counter for the identities of tables (for the result cache).
+     */
+    private static final AtomicLong ids = new AtomicLong ();
 
     /** Table name.
      */
@@ -63,27 +72,147 @@ public class Table
 
     /** Index into tuples (maps key to tuple).
      */
-    private final Map <KeyType, Comparable []> index;
+    private Map <KeyType, Comparable []> index;
+
+    /** Column positions of the primary key attributes (resolved on first use).
+     */
+    private transient volatile int [] keyPos;
+
+    /** Lock serializing the writers (inserts); readers never take it.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock ();
+
+    /** Identity of this table in the current run (assigned on first use, 0 until then).
+     */
+    private transient volatile long id;
+
+    /** Version of the tuples, bumped by every insert (for the result cache).
+     */
+    private transient volatile long version;
+
+    /** Whether a result computed from this table may be in the result cache.
+     */
+    private transient volatile boolean cached;
+
+    /** Bloom filters on the values of columns of this table, by version and columns
+     * (built on first use, dropped when the table changes).
+     */
+    private transient volatile Map <String, BloomFilter> blooms;
+
+    /** The min/max of each column per block of tuples, for skipping blocks in scans
+     * (saved with the table; built on first use for result tables).
+     */
+    private volatile ZoneMap zones;
+
+    /** The dictionary encoded (String) columns, by column number (null if none; saved
+     * with the table).
+     */
+    private volatile Map <Integer, DictionaryColumn> dicts;
+
+    /** The position of the first tuple appended by a streamed load but not yet indexed
+     * (-1 if none), see append and endLoad.
+     */
+    private int unindexed = -1;
 
     /** The supported map types.
      */
-    public enum MapType { NO_MAP, TREE_MAP, HASH_MAP, BPTREE_MAP }
+    public enum MapType { NO_MAP, TREE_MAP, HASH_MAP, LINHASH_MAP, BPTREE_MAP, DINDEX_MAP }
 
     /** The map type to be used for indices.  Change as needed.
      * PLEASE MODIFY THIS FOR TESTING PURPOSES
      */
     private static final MapType mType = MapType.NO_MAP;
 
+    /** Whether tables may be read by many threads while another inserts.  The tuples are
+     * then kept in an append-only TupleList (readers scan a snapshot up to its size
+     * watermark) and the index is a concurrent map (ConcurrentBpTreeMap for BPTREE_MAP).
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final boolean CONCURRENT = false;
+
+    /** Whether the tuples are stored off-heap (in an OffHeapTupleList) rather than as
+     * arrays on the heap, so large tables add little to garbage collection pauses.  Pair
+     * it with NO_MAP or DINDEX_MAP (on a single Integer key), since that index keeps only
+     * positions while the other indices would keep a heap copy of every tuple.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final boolean OFF_HEAP = false;
+
+    /** The maximum number of groups hash aggregation may hold (per part of the table)
+     * before groupBy switches to sort-based aggregation.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int GROUP_BUDGET = 1 << 20;
+
+    /** The maximum number of tuples sorted in memory at once.  Beyond it, orderBy (and
+     * sort aggregation) sorts runs of this many tuples, spills them to temporary files
+     * and merges the runs.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int SORT_BUDGET = 1 << 21;
+
+    /** The maximum number of build tuples h_join holds in memory.  Beyond it, both
+     * tables are hash partitioned, the partitions other than the first are spilled to
+     * temporary files, and the join is done one partition at a time.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int JOIN_BUDGET = 1 << 21;
+
+    /** The number of query results (from select and i_join) kept in the result cache
+     * (0 disables it), and the most tuples a result may have to be kept.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int CACHE_SIZE = 256;
+    private static final int CACHE_ROWS = 1 << 16;
+
+    /** Whether joins first drop the probe tuples whose join values are not in a Bloom
+     * filter on the other table's join values, and the filter's false positive rate.
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final boolean BLOOM     = true;
+    private static final double  BLOOM_FPP = 0.01;
+
+    /** The number of rows per block of the zone maps (min/max of each column per block).
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int ZONE_BLOCK = 1 << 12;
+
+    /** The result cache shared by all tables.
+     */
+    private static final ResultCache cache = new ResultCache (CACHE_SIZE, CACHE_ROWS);
+
+    /************************************************************************************
+     * Make a map (index) given the MapType.  A DINDEX_MAP stores unboxed positions of the
+     * tuples for a single Integer key column, and falls back to a HASH_MAP for other keys.
+     */
+    private Map <KeyType, Comparable []> makeMap ()
+    {
+        if (CONCURRENT) {
+            return switch (mType) {
+                case NO_MAP     -> null;
+                case TREE_MAP   -> new ConcurrentSkipListMap <> ();
+                case HASH_MAP   -> new ConcurrentHashMap <> ();
+                case BPTREE_MAP -> new ConcurrentBpTreeMap <> (KeyType.class, Comparable [].class);
+                default         -> new LockedMap <> (makeMap (mType));
+            }; // switch
+        } // if
+        return makeMap (mType);
+    } // makeMap
+
     /************************************************************************************
-     * Make a map (index) given the MapType.
+     * Make a map (index) of the given MapType (not thread-safe).
+     *
+     * @param type  the type of map to make
      */
-    private static Map <KeyType, Comparable []> makeMap ()
+    private Map <KeyType, Comparable []> makeMap (MapType type)
     {
-        return switch (mType) {
+        return switch (type) {
+            case DINDEX_MAP  -> (keyPos ().length == 1 && domain [keyPos () [0]] == Integer.class)
+                                ? new DIndex.TupleMap (tuples, keyPos () [0]) : new HashMap <> ();
             case NO_MAP      -> null;
             case TREE_MAP    -> new TreeMap <> ();
             case HASH_MAP    -> new HashMap <> ();
-            //  case LINHASH_MAP -> new LinHashMap <> (KeyType.class, Comparable [].class);
+            case LINHASH_MAP -> new LinHashMap <> (KeyType.class, Comparable [].class);
             case BPTREE_MAP  -> new BpTreeMap <> (KeyType.class, Comparable [].class);
             default          -> null;
         }; // switch
@@ -133,7 +262,8 @@ public class Table
         attribute = _attribute;
         domain    = _domain;
         key       = _key;
-        tuples    = new ArrayList <> ();
+        tuples    = OFF_HEAP ? new OffHeapTupleList (domain)
+                  : CONCURRENT ? new TupleList () : new ArrayList <> ();
         index     = makeMap ();
         out.println (Arrays.toString (domain));
     } // constructor
@@ -181,7 +311,10 @@ public class Table
 
     /************************************************************************************
      * Project the tuples onto a lower dimension by keeping only the given attributes.
-     * Check whether the original key is included in the projection.
+     * Check whether the original key is included in the projection: if so, the projected
+     * tuples are already distinct, otherwise the duplicates are eliminated using TupleSets,
+     * with the tuples partitioned on their hash codes so the partitions may be deduplicated
+     * in parallel (the first occurrence of each tuple is kept, in order).
      *
      * #usage movie.project ("title year studioNo")
      *
@@ -191,10 +324,13 @@ public class Table
     public Table project (String attributes)
     {
         out.println ("RA> " + name + ".project (" + attributes + ")");
+        var call = Metrics.start ("project", attributes, this);
         var attrs     = attributes.split (" ");
         int[] colPos = match(attrs);
         var colDomain = extractDom (match (attrs), domain);
-        var newKey    = (Arrays.asList (attrs).containsAll (Arrays.asList (key))) ? key : attrs;
+        var hasKey    = Arrays.asList (attrs).containsAll (Arrays.asList (key));
+        var newKey    = hasKey ? key : attrs;
+        call.detail (hasKey ? "key kept, no duplicate elimination" : "hash duplicate elimination");
 
         List <Comparable []> rows = new ArrayList <> ();
 
@@ -203,30 +339,24 @@ public class Table
         for(int col : colPos){
             if (col == -1){
                 out.println(" you are given an invalid attributes please check the attributes");
-                return new Table (name + count++, attrs, colDomain, newKey, rows);
+                return call.end (new Table (name + count.getAndIncrement (), attrs, colDomain, newKey, rows));
             }
         }
 
-        // table to store the resulting project table with its attributes, domain and key
-        Table newTable = new Table (name + count++, attrs, colDomain, newKey);
-        for(int i = 0 ; i < tuples.size() ; i++){
-            // create new tuple with projected column
-            var newtuple = new Comparable[colPos.length];
-            for(int j = 0 ; j < colPos.length ;j++) {
-                int colContent = colPos[j];
-                // copy the value of from original tuple to newtuple
-                newtuple[j] = tuples.get(i)[colContent];
-            }
-            KeyType compareR = new KeyType(newtuple);
-            // insert newtuple into the newTable if its not in the index
-            // eliminates duplicates
-            if (newTable.index.get(compareR) == null) {
-                newTable.insert(newtuple);
-            }
-        }
+        // create new tuples with the projected columns
+        var n    = tuples.size ();
+        var proj = new Comparable [n][];
+        IntStream.range (0, n).parallel ().forEach (i -> proj [i] = extract (tuples.get (i), colPos));
 
-        return newTable;
-       // return new Table (name + count++, attrs, colDomain, newKey, rows);
+        // the key is kept, so there are no duplicates
+        if (hasKey) return call.end (new Table (name + count.getAndIncrement (), attrs, colDomain, newKey,
+                                      new ArrayList <> (Arrays.asList (proj))));
+
+        // eliminate duplicates
+        var keep = distinct (proj);
+        for (var i = 0; i < n; i++) if (keep [i]) rows.add (proj [i]);
+
+        return call.end (new Table (name + count.getAndIncrement (), attrs, colDomain, newKey, rows));
     } // project
 
     /************************************************************************************
@@ -240,17 +370,23 @@ public class Table
     public Table select (Predicate <Comparable []> predicate)
     {
         out.println (STR."RA> \{name}.select (\{predicate})");
+        var call = Metrics.start ("select", "predicate", this);
+        call.detail ("scan");
 
-        return new Table (name + count++, attribute, domain, key,
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key,
                    tuples.stream ().filter (t -> predicate.test (t))
-                                   .collect (Collectors.toList ()));
+                                   .collect (Collectors.toList ())));
     } // select
 
     /************************************************************************************
      * Select the tuples satisfying the given simple condition on attributes/constants
-     * compared using an <op> ==, !=, <, <=, >, >=.
+     * compared using an <op> ==, !=, <, <=, >, >=, or a conjunction of such conditions
+     * joined by &&.  The scan skips the blocks of tuples whose zone map (min/max per
+     * column) shows that no tuple in the block can satisfy the condition, and tests the
+     * conditions on dictionary encoded columns by comparing codes.
      *
      * #usage movie.select ("year == 1977")
+     * #usage movie.select ("year >= 1970 && year < 1980")
      *
      * @param condition  the check condition as a string for tuples
      * @return  a table with tuples satisfying the condition
@@ -258,46 +394,77 @@ public class Table
     public Table select (String condition)
     {
         out.println (STR."RA> \{name}.select (\{condition})");
+        var call = Metrics.start ("select", condition, this);
+        call.detail ("scan");
+
+        var ck  = cacheKey ("select", condition.trim ().replaceAll ("\\s+", " "));
+        var hit = cache.get (ck);
+        if (hit != null) { call.detail ("result cache hit"); return call.end (hit); }
 
         List <Comparable []> rows = new ArrayList <> ();
 
-        var token = condition.split (" ");
-        var colNo = col (token [0]);
-        for (var t : tuples) {
+        var n     = tuples.size ();                                // rows scanned (codes cover them)
+        var conds = condition.trim ().split ("\\s*&&\\s*");
+        var colNo = new int [conds.length];
+        var op    = new String [conds.length];
+        var val   = new String [conds.length];
+        var codes = new DictionaryColumn.Codes [conds.length];     // set for tests on codes
+        var coded = 0;
+        for (var c = 0; c < conds.length; c++) {
+            var token = conds [c].split (" ");
+            colNo [c] = col (token [0]);
+            op [c]    = token [1];
+            val [c]   = token [2];
+            var d = dict (colNo [c]);
+            if (d != null) {
+                codes [c] = d.codes (tuples, op [c], val [c]);
+                if (codes [c].test () == null) codes [c] = null;
+                else coded++;
+            } // if
+        } // for
+
+        var zm    = zones ();
+        var size  = zm.block ();
+        var nb    = (n + size - 1) / size;
+        var skips = 0;
+        for (var b = 0; b < nb; b++) {
+            var skip = false;
+            for (var c = 0; c < conds.length && ! skip; c++) {
+                skip = ! zm.mayMatch (b, colNo [c], op [c], convert (colNo [c], val [c]));
+            } // for
+            if (skip) { skips++; continue; }
 
-            if (satisfies (t, colNo, token [1], token [2])) rows.add (t);
+            for (var i = b * size; i < Math.min (n, (b + 1) * size); i++) {
+                var all = true;
+                for (var c = 0; c < conds.length && all; c++) {
+                    all = (codes [c] != null) ? codes [c].test ().test (codes [c].codes () [i])
+                                              : satisfies (value (i, colNo [c]), colNo [c], op [c], val [c]);
+                } // for
+                if (all) rows.add (tuples.get (i));
+            } // for
         } // for
+        call.detail (STR."scan, zone maps skipped \{skips} of \{nb} blocks"
+                     + (coded > 0 ? STR.", \{coded} condition(s) on dictionary codes" : ""));
 
-        return new Table (name + count++, attribute, domain, key, rows);
+        return call.end (cache.put (ck, new Table (name + count.getAndIncrement (), attribute, domain, key, rows)));
     } // select
 
     /************************************************************************************
      * Does tuple t satify the condition t[colNo] op value where op is ==, !=, <, <=, >, >=?
      *
-     * #usage satisfies (t, 1, "<", "1980")
+     * #usage satisfies (t[1], 1, "<", "1980")
      *
+     * @param t_A    the value of the attribute in tuple t, i.e., t[colNo]
      * @param colNo  the attribute's column number
      * @param op     the comparison operator
      * @param value  the value to compare with (must be converted, String -> domain type)
      * @return  whether the condition is satisfied
      */
-    private boolean satisfies (Comparable [] t, int colNo, String op, String value)
+    private boolean satisfies (Comparable t_A, int colNo, String op, String value)
 
     {
-        var t_A = t[colNo];
         out.println (STR."satisfies: \{t_A} \{op} \{value}");
-        var valt = switch (domain [colNo].getSimpleName ()) {      // type converted
-
-            case "Byte"      -> Byte.valueOf (value);
-            case "Character" -> value.charAt (0);
-            case "Double"    -> Double.valueOf (value);
-            case "Float"     -> Float.valueOf (value);
-            case "Integer"   -> Integer.valueOf (value);
-            case "Long"      -> Long.valueOf (value);
-            case "Short"     -> Short.valueOf (value);
-            case "String"    -> value;
-            default          -> value;
-        }; // switch
+        var valt = convert (colNo, value);                         // type converted
         var comp = t_A.compareTo (valt);
 
         return switch (op) {
@@ -312,6 +479,28 @@ public class Table
         }; // switch
     } // satisfies
 
+    /************************************************************************************
+     * Convert the string value to the domain type of the given column.
+     *
+     * @param colNo  the attribute's column number
+     * @param value  the value to convert
+     * @return  the value in the column's domain
+     */
+    private Comparable convert (int colNo, String value)
+    {
+        return switch (domain [colNo].getSimpleName ()) {
+            case "Byte"      -> Byte.valueOf (value);
+            case "Character" -> value.charAt (0);
+            case "Double"    -> Double.valueOf (value);
+            case "Float"     -> Float.valueOf (value);
+            case "Integer"   -> Integer.valueOf (value);
+            case "Long"      -> Long.valueOf (value);
+            case "Short"     -> Short.valueOf (value);
+            case "String"    -> value;
+            default          -> value;
+        }; // switch
+    } // convert
+
     /************************************************************************************
      * Select the tuples satisfying the given key predicate (key = value).  Use an index
      * (Map) to retrieve the tuple with the given key value.  INDEXED SELECT algorithm.
@@ -322,21 +511,29 @@ public class Table
     public Table select (KeyType keyVal)
     {
         out.println (STR."RA> \{name}.select (\{keyVal})");
+        var call = Metrics.start ("select", String.valueOf (keyVal), this);
+        call.detail (STR."indexed select (\{mType})");
+
+        var ck  = cacheKey ("select", keyVal);
+        var hit = cache.get (ck);
+        if (hit != null) { call.detail ("result cache hit"); return call.end (hit); }
 
         List <Comparable []> rows = new ArrayList <> ();
 
         //Find the tuples associated with the keyVal
         Comparable[] tups = index.get(keyVal);
+        call.probes (1);
 
         if (tups != null) {
             rows.add (tups);
         }
 
-        return new Table (name + count++, attribute, domain, key, rows);
+        return call.end (cache.put (ck, new Table (name + count.getAndIncrement (), attribute, domain, key, rows)));
     } // select
 
     /************************************************************************************
-     * Union this table and table2.  Check that the two tables are compatible.
+     * Union this table and table2.  Check that the two tables are compatible.  Tuples
+     * of table2 equal to (all attributes of) a tuple of this table are left out.
      *
      * #usage movie.union (show)
      *
@@ -347,32 +544,25 @@ public class Table
     {
         //Print out a message to let the users know that the 'Union Operation' is being performed
         System.out.println (STR."RA> \{name}.union (\{table2.name})");
+        var call = Metrics.start ("union", "", this, table2);
+        call.detail (table2.foundPlan (this));
 
         //Check if the tables are compatible and if not then return a null
-        if (! compatible (table2)) return null;
+        if (! compatible (table2)) return call.end (null);
 
         //Create a new list to store the rows of the resulting union
-        List <Comparable []> rows = new ArrayList <> ();
-
+        List <Comparable []> rows = new ArrayList <> (tuples.size () + table2.tuples.size ());
 
         //Add all the rows from the current (this) table to the new list
-        for (Comparable [] row : this.tuples) {
-            rows.add (row);
-        } //for
+        rows.addAll (this.tuples);
 
-        //Add all the rows from table2 to the new list
-        for (Comparable [] row2 : table2.tuples) {
-            var keyVal = new Comparable [key.length];
-            var cols   = match (key);
-            for (var j = 0; j < keyVal.length; j++) keyVal [j] = row2 [cols [j]];
-            KeyType compareR = new KeyType(keyVal);
-            //checks if tuple is not already found in table1
-            if (this.index.get(compareR) == null) {
-                rows.add (row2);
-            } //if
+        //Add the rows from table2 that are not already found in table1
+        var in = table2.found (this);
+        for (var j = 0; j < in.length; j++) {
+            if (! in [j]) rows.add (table2.tuples.get (j));
         } //for
         // Create and return a new Table object with the combined rows
-        return new Table (name + count++, attribute, domain, key, rows);
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, rows));
     } // union
 
     /************************************************************************************
@@ -387,40 +577,46 @@ public class Table
     public Table minus (Table table2)
     {
         out.println (STR."RA> \{name}.minus (\{table2.name})");
-        if (! compatible (table2)) return null;
+        var call = Metrics.start ("minus", "", this, table2);
+        call.detail (foundPlan (table2));
+        if (! compatible (table2)) return call.end (null);
 
         List <Comparable []> rows = new ArrayList <> ();
 
-        Map<KeyType, Comparable[]> index = new HashMap<>();
+        // keep the rows in 'this' that are not in table2
+        var in = found (table2);
+        for (var i = 0; i < in.length; i++) {
+            if (! in [i]) rows.add (tuples.get (i));
+        } // for
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, rows));
+    } // minus
 
-        // loop through table2 and set the index
-        for(Comparable[] row2 : table2.tuples){
-            var keyVal = new Comparable[key.length];
-            var cols = match(key);
-            for(var j = 0; j < keyVal.length; j++){
-                // keyVal stores the values from the current row from relevant columns
-                keyVal [j] = row2[cols [j]];
-            }
-            KeyType keyType = new KeyType(keyVal);
-            // key and row is inserted into a HashMap index
-            index.put(keyType, row2);
-        }
+    /************************************************************************************
+     * Intersect this table and table2.  Check that the two tables are compatible.
+     * When only this table has a usable index, the tuples of table2 are probed into it.
+     *
+     * #usage movie.intersect (show)
+     *
+     * @param table2  the rhs table in the intersect operation
+     * @return  a table representing the intersection
+     */
+    public Table intersect (Table table2)
+    {
+        out.println (STR."RA> \{name}.intersect (\{table2.name})");
+        var call = Metrics.start ("intersect", "", this, table2);
+        if (! compatible (table2)) return call.end (null);
 
-        // loop through each row, check if the rows are in 'this' but not in table2
-        // handling duplicates
-        for(Comparable[] row : this.tuples){
-            var keyVal = new Comparable[key.length];
-            var cols = match(key);
-            for(var j = 0; j < keyVal.length; j++){
-                keyVal [j] = row[cols [j]];
-            }
-            KeyType keyType = new KeyType(keyVal);
-            if (index.get(keyType) == null){
-                rows.add(row);
-            }
-        }
-        return new Table (name + count++, attribute, domain, key, rows);
-    } // minus
+        List <Comparable []> rows = new ArrayList <> ();
+
+        var probeThis = indexed () && ! table2.indexed ();
+        call.detail (probeThis ? table2.foundPlan (this) : foundPlan (table2));
+        var from = probeThis ? table2 : this;
+        var in   = probeThis ? table2.found (this) : found (table2);
+        for (var i = 0; i < in.length; i++) {
+            if (in [i]) rows.add (from.tuples.get (i));
+        } // for
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, rows));
+    } // intersect
 
     /************************************************************************************
      * Join this table and table2 by performing an "equi-join".  Tuples from both tables
@@ -438,18 +634,41 @@ public class Table
     public Table join (String attributes1, String attributes2, Table table2)
     {
         out.println (STR."RA> \{name}.join (\{attributes1}, \{attributes2}, \{table2.name})");
+        var call = Metrics.start ("join", STR."\{attributes1}, \{attributes2}", this, table2);
+        call.detail (BLOOM ? "nested loop join, Bloom filter" : "nested loop join");
 
         var t_attrs = attributes1.split (" ");
         var u_attrs = attributes2.split (" ");
         var rows    = new ArrayList <Comparable []> ();
-        for (var t: tuples) {
-            for(var j: table2.tuples) {
-
-                if (t[col(attributes1)].equals(j[table2.col(attributes2)])) {
-                    rows.add(concat(t,j));
+        int c1 = col(attributes1), c2 = table2.col(attributes2);
+        var d1 = dict (c1);
+        var d2 = table2.dict (c2);
+        if (d1 != null && d2 != null) {                            // both encoded: compare codes
+            call.detail ("nested loop join, dictionary codes");
+            var ks = d1.joinCodes (tuples, d2, table2.tuples);     // this table's codes in table2's codes
+            var k1 = ks [0];
+            var k2 = ks [1];
+            for (var i = 0; i < k1.length; i++) {
+                var k = k1 [i];
+                if (k < 0) continue;
+                for (var j = 0; j < k2.length; j++) {
+                    if (k2 [j] == k) rows.add (concat (tuples.get (i), table2.tuples.get (j)));
+                } // for
+            } // for
+        } else {
+            // skip the outer tuples whose value is certainly not in table2
+            var filter = BLOOM ? table2.bloom (new int [] { c2 }) : null;
+            var probe  = new KeyType.Probe (new int [] { c1 });
+            for (var t: tuples) {
+                if (filter != null && ! filter.mightContain (probe.on (t).hashCode ())) continue;
+                for(var j: table2.tuples) {
+
+                    if (t[c1].equals(j[c2])) {
+                        rows.add(concat(t,j));
+                    }
                 }
             }
-        }
+        } // if
 
         // Handling disambiguation
         String[] combined_arr_Attributes = concat(attribute, table2.attribute); // Create a combined array of attributes
@@ -461,14 +680,12 @@ public class Table
                 if (attribute[i].equals(table2.attribute[j]))
                 {
                     combined_arr_Attributes[attribute.length + j] = table2.attribute[j] + "2";
-                    table2.attribute[j] += "2";
-
                 }
             }
         }
 
-        return new Table (name + count++, concat (attribute, table2.attribute),
-                concat (domain, table2.domain), key, rows);
+        return call.end (new Table (name + count.getAndIncrement (), combined_arr_Attributes,
+                concat (domain, table2.domain), key, rows));
     } // join
 
     /************************************************************************************
@@ -485,6 +702,8 @@ public class Table
     public Table join (String condition, Table table2)
     {
         out.println (STR."RA> \{name}.join (\{condition}, \{table2.name})");
+        var call = Metrics.start ("theta_join", condition, this, table2);
+        call.detail ("nested loop join");
 
         var rows = new ArrayList <Comparable []> ();
 
@@ -550,8 +769,8 @@ public class Table
         }
         // I M P L E M E N T E D
 
-        return new Table (name + count++, concat (attribute, table2.attribute),
-                concat (domain, table2.domain), key, rows);
+        return call.end (new Table (name + count.getAndIncrement (), combined_arr_Attributes,
+                concat (domain, table2.domain), key, rows));
     } // join
 
     /************************************************************************************
@@ -566,6 +785,12 @@ public class Table
     public Table i_join (String attributes1, String attributes2, Table table2)
     {
         out.println("RA> " + name + ".join (" + attributes1 + ", " + attributes2 + ", " + table2.name + ")");
+        var call = Metrics.start ("i_join", STR."\{attributes1}, \{attributes2}", this, table2);
+        call.detail (STR."indexed join, probing \{table2.name}'s index (\{mType})" + (BLOOM ? ", Bloom filter" : ""));
+
+        var ck  = cacheKey ("i_join", attributes1.trim (), attributes2.trim (), table2);
+        var hit = cache.get (ck);
+        if (hit != null) { call.detail ("result cache hit"); return call.end (hit); }
 
         var t_attrs = attributes1.split(" ");
         var u_attrs = attributes2.split(" ");
@@ -587,10 +812,16 @@ public class Table
 
         // Perform join on valid key types
         if (count1 == t_attrs.length && count2 == u_attrs.length) {
+            var probe = new KeyType.Probe (match (t_attrs));
+            var filter = BLOOM ? table2.bloom (table2.match (u_attrs)) : null;
             for (int i = 0; i < tuples.size(); i++) {
 
                 // Getting keyType for foreign key of table1 to comparing with primary key of table2
-                KeyType keyTypeTable1 = new KeyType(extract(tuples.get(i), t_attrs));
+                KeyType keyTypeTable1 = probe.on(tuples.get(i));
+
+                // skip the lookup when the key is certainly not in table2
+                if (filter != null && ! filter.mightContain (keyTypeTable1.hashCode ())) continue;
+                call.probes (1);
 
                 // retrieving  table2 tuples that matches primary key with foreign key of table1
                 Comparable[] tuplesTable2 = table2.index.get(keyTypeTable1);
@@ -614,163 +845,853 @@ public class Table
             System.out.println("ERROR:  you are given an invalid attributes please check the attributes");
         }
 
-        // adding ambiguous column name with 2
+        // adding ambiguous column name with 2 (to the result only, table2 is left as is)
+        String[] combined_arr_Attributes = concat(attribute, table2.attribute);
         for (int i = 0; i < attribute.length; i++) {
             for (int j = 0; j < table2.attribute.length; j++) {
                 if (attribute[i].equals(table2.attribute[j])) {
-                    table2.attribute[j] += "2";
+                    combined_arr_Attributes[attribute.length + j] = table2.attribute[j] + "2";
                 }
             }
         }
 
-        return new Table(name + count++, concat(attribute, table2.attribute),
-                concat(domain, table2.domain), key, rows);
+        return call.end (cache.put (ck, new Table(name + count.getAndIncrement (), combined_arr_Attributes,
+                concat(domain, table2.domain), key, rows)));
     } // i_join
 
     /************************************************************************************
-     * Join this table and table2 by performing an NATURAL JOIN.  Tuples from both tables
-     * are compared requiring common attributes to be equal.  The duplicate column is also
-     * eliminated.
+     * Join this table and table2 by performing an "equi-join".  Same as above equi-join,
+     * but implemented using a HYBRID HASH JOIN algorithm (see below).
      *
-     * #usage movieStar.join (starsIn)
+     * #usage transcript.h_join ("studId", "id", student)
      *
-     * @param table2  the rhs table in the join operation
+     * @param attributes1  the attributes of this table to be compared (Foreign Key)
+     * @param attributes2  the attributes of table2 to be compared (Primary Key)
+     * @param table2       the rhs table in the join operation
      * @return  a table with tuples satisfying the equality predicate
      */
-    public Table join (Table table2)
+    public Table h_join (String attributes1, String attributes2, Table table2)
     {
-        out.println (STR."RA> \{name}.join (\{table2.name})");
+        out.println (STR."RA> \{name}.h_join (\{attributes1}, \{attributes2}, \{table2.name})");
+        var call = Metrics.start ("h_join", STR."\{attributes1}, \{attributes2}", this, table2);
 
         var rows = new ArrayList <Comparable []> ();
+        call.detail (hashJoin (attributes1, attributes2, table2, rows::add));
 
-        //  NOT USED FOR PROJECT 3
+        return call.end (new Table (name + count.getAndIncrement (), joinAttributes (table2),
+                                    concat (domain, table2.domain), key, rows));
+    } // h_join
 
-        // FIX - eliminate duplicate columns
-        return new Table (name + count++, concat (attribute, table2.attribute),
-                                          concat (domain, table2.domain), key, rows);
+    /************************************************************************************
+     * Join this table and table2 by performing an "equi-join" using a HYBRID HASH JOIN,
+     * passing each joined tuple (this table's values then table2's) to sink, so a join
+     * larger than memory may be written out as it is produced.  A hash table is built on
+     * the smaller table and probed with the other.  When the smaller table has more than
+     * JOIN_BUDGET tuples, both tables are partitioned on the hash of the join attributes
+     * (GRACE HASH JOIN): the first partition is joined in memory as the tables are read,
+     * while the others are spilled to temporary files and then joined one at a time, so
+     * about JOIN_BUDGET build tuples are held in memory at once (more if the join values
+     * are skewed).
+     *
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
+     * @param sink         the consumer of the joined tuples
+     */
+    public void h_join (String attributes1, String attributes2, Table table2, Consumer <Comparable []> sink)
+    {
+        out.println (STR."RA> \{name}.h_join (\{attributes1}, \{attributes2}, \{table2.name})");
+        var call = Metrics.start ("h_join", STR."\{attributes1}, \{attributes2}", this, table2);
 
-    } // join
+        var rowsOut = new long [1];
+        call.detail (hashJoin (attributes1, attributes2, table2, t -> { sink.accept (t); rowsOut [0]++; }));
+        call.end (rowsOut [0]);
+    } // h_join
 
     /************************************************************************************
-     * Return the column position for the given attribute name or -1 if not found.
+     * Do the hybrid hash join for h_join, passing the joined tuples to sink.
      *
-     * @param attr  the given attribute name
-     * @return  a column position
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
+     * @param sink         the consumer of the joined tuples
+     * @return  a description of the plan (for EXPLAIN)
      */
-    public int col (String attr)
+    private String hashJoin (String attributes1, String attributes2, Table table2, Consumer <Comparable []> sink)
     {
-        for (var i = 0; i < attribute.length; i++) {
-           if (attr.equals (attribute [i])) return i;
 
-        } // for
+        var t_attrs = attributes1.split (" ");
+        var u_attrs = attributes2.split (" ");
+        if (t_attrs.length != u_attrs.length)
+            throw new IllegalArgumentException ("h_join: the attribute lists differ in length");
+        for (var a : t_attrs) if (col (a) < 0) throw new IllegalArgumentException (STR."h_join: unknown attribute \{a}");
+        for (var a : u_attrs) if (table2.col (a) < 0) throw new IllegalArgumentException (STR."h_join: unknown attribute \{a}");
+
+        var buildThis = tuples.size () < table2.tuples.size ();
+        var build = buildThis ? this : table2;
+        var probe = buildThis ? table2 : this;
+        var bCols = buildThis ? match (t_attrs) : table2.match (u_attrs);
+        var pCols = buildThis ? table2.match (u_attrs) : match (t_attrs);
+        BiConsumer <Comparable [], Comparable []> emit = buildThis ? (b, p) -> sink.accept (concat (b, p))
+                                                                   : (b, p) -> sink.accept (concat (p, b));
+
+        var n     = build.tuples.size ();
+        var parts = (n <= JOIN_BUDGET) ? 1 : (int) Math.min (1 << 12, 2L * n / JOIN_BUDGET + 1);
+        var bSpill = new Spill [parts];
+        var pSpill = new Spill [parts];
+        try {
+            // build: keep partition 0 in memory and spill the rest
+            var table = new HashMap <KeyType, List <Comparable []>> ();
+            for (var i = 0; i < n; i++) {
+                var t   = build.tuples.get (i);
+                var key = KeyType.of (t, bCols);
+                var p   = partition (key, parts);
+                if (p == 0) table.computeIfAbsent (key, k -> new ArrayList <> (1)).add (t);
+                else {
+                    if (bSpill [p] == null) bSpill [p] = new Spill ("build");
+                    bSpill [p].write (t);
+                } // if
+            } // for
 
-        return -1;       // -1 => not found
-    } // col
+            // probe: join partition 0 and spill the probe tuples of the others
+            var on     = new KeyType.Probe (pCols);
+            var filter = BLOOM ? build.bloom (bCols) : null;
+            var buf    = new Comparable [probe.domain.length];
+            for (var i = 0; i < probe.tuples.size (); i++) {
+                var key = on.on (probe.columns (i, pCols, buf));   // read just the join columns
+                if (filter != null && ! filter.mightContain (key.hashCode ())) continue;   // no partner, not spilled
+                var p   = partition (key, parts);
+                if (p == 0) {
+                    var ms = table.get (key);
+                    if (ms != null) {
+                        var t = probe.tuples.get (i);
+                        for (var m : ms) emit.accept (m, t);
+                    } // if
+                } else if (bSpill [p] != null) {                   // no build tuples => no matches
+                    if (pSpill [p] == null) pSpill [p] = new Spill ("probe");
+                    pSpill [p].write (probe.tuples.get (i));
+                } // if
+            } // for
+
+            // join the spilled partitions one at a time
+            for (var p = 1; p < parts; p++) {
+                if (pSpill [p] == null) continue;
+                table.clear ();
+                for (var it = bSpill [p].read (); it.hasNext (); ) {
+                    var t = it.next ();
+                    table.computeIfAbsent (KeyType.of (t, bCols), k -> new ArrayList <> (1)).add (t);
+                } // for
+                for (var it = pSpill [p].read (); it.hasNext (); ) {
+                    var t  = it.next ();
+                    var ms = table.get (on.on (t));
+                    if (ms != null) for (var m : ms) emit.accept (m, t);
+                } // for
+                bSpill [p].close ();
+                pSpill [p].close ();
+            } // for
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("h_join: cannot spill a partition", ex);
+        } finally {
+            for (var p = 1; p < parts; p++) {
+                if (bSpill [p] != null) bSpill [p].close ();
+                if (pSpill [p] != null) pSpill [p].close ();
+            } // for
+        } // try
+        return ((parts == 1) ? STR."in-memory hash join, building on \{build.name}"
+                             : STR."hybrid hash join, building on \{build.name}, \{parts} partitions")
+               + (BLOOM ? ", Bloom filter" : "");
+    } // hashJoin
 
     /************************************************************************************
-     * Insert a tuple to the table.
+     * Return the tuples of this table that have at least one match in table2, where a
+     * match has equal values for the given attributes (SEMI-JOIN, i.e., EXISTS).  Only
+     * this table's tuples are returned, each once, and probing stops at the first match,
+     * so the join itself is never formed.  When attributes2 is table2's primary key and
+     * table2 has an index, each tuple probes the index (after a Bloom filter); otherwise
+     * a hash set of table2's join values is built and probed.
      *
-     * #usage movie.insert ("Star_Wars", 1977, 124, "T", "Fox", 12345)
+     * #usage student.semiJoin ("id", "studId", transcript)
      *
-     * @param tup  the array of attribute values forming the tuple
-     * @return  the insertion position/index when successful, else -1
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the semi-join operation
+     * @return  a table with the tuples of this table that have a match
      */
-    public int insert (Comparable [] tup)
+    public Table semiJoin (String attributes1, String attributes2, Table table2)
     {
-        out.println (STR."DML> insert into \{name} values (\{Arrays.toString (tup)})");
-
-        if (typeCheck (tup)) {
-            tuples.add (tup);
-            var keyVal = new Comparable [key.length];
-            var cols   = match (key);
-            for (var j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
-            if (mType != MapType.NO_MAP) index.put (new KeyType (keyVal), tup);
-            return tuples.size () - 1;                             // assumes it is added at the end
-        } else {
-            return -1;                                             // insert failed
-        } // if
-    } // insert
+        return semi ("semiJoin", attributes1, attributes2, table2, true);
+    } // semiJoin
 
     /************************************************************************************
-     * Get the tuple at index position i.
+     * Return the tuples of this table that have no match in table2, where a match has
+     * equal values for the given attributes (ANTI-JOIN, i.e., NOT EXISTS).  Probing is
+     * done as for semiJoin.
      *
-     * @param i  the index of the tuple being sought
-     * @return  the tuple at index position i
+     * #usage course.antiJoin ("crsCode", "crsCode", teaching)
+     *
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the anti-join operation
+     * @return  a table with the tuples of this table that have no match
      */
-    public Comparable [] get (int i)
+    public Table antiJoin (String attributes1, String attributes2, Table table2)
     {
-        return tuples.get (i);
-    } // get
+        return semi ("antiJoin", attributes1, attributes2, table2, false);
+    } // antiJoin
 
     /************************************************************************************
-     * Get the name of the table.
+     * Do a semi-join (keep the tuples with a match) or an anti-join (keep the others).
      *
-     * @return  the table's name
+     * @param op           the operator's name
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table
+     * @param keep         whether to keep the tuples with a match (else those without)
+     * @return  a table with the tuples of this table kept
      */
-    public String getName ()
+    private Table semi (String op, String attributes1, String attributes2, Table table2, boolean keep)
     {
-        return name;
-    } // getName
+        out.println (STR."RA> \{name}.\{op} (\{attributes1}, \{attributes2}, \{table2.name})");
+        var call = Metrics.start (op, STR."\{attributes1}, \{attributes2}", this, table2);
+
+        var t_attrs = attributes1.split (" ");
+        var u_attrs = attributes2.split (" ");
+        if (t_attrs.length != u_attrs.length)
+            throw new IllegalArgumentException (STR."\{op}: the attribute lists differ in length");
+        for (var a : t_attrs) if (col (a) < 0) throw new IllegalArgumentException (STR."\{op}: unknown attribute \{a}");
+        for (var a : u_attrs) if (table2.col (a) < 0) throw new IllegalArgumentException (STR."\{op}: unknown attribute \{a}");
+
+        var ck  = cacheKey (op, attributes1.trim (), attributes2.trim (), table2);
+        var hit = cache.get (ck);
+        if (hit != null) { call.detail ("result cache hit"); return call.end (hit); }
+
+        var has = new boolean [tuples.size ()];
+        call.detail (matches (match (t_attrs), table2.match (u_attrs), table2, has, call));
+
+        var rows = new ArrayList <Comparable []> ();
+        for (var i = 0; i < has.length; i++) if (has [i] == keep) rows.add (tuples.get (i));
+
+        return call.end (cache.put (ck, new Table (name + count.getAndIncrement (), attribute, domain, key, rows)));
+    } // semi
 
     /************************************************************************************
-     * Print tuple tup.
-     * @param tup  the array of attribute values forming the tuple
+     * Determine, for each tuple of this table, whether some tuple of table2 has equal
+     * values in the join columns (stopping at the first).  If cols2 is table2's primary
+     * key (in any order) and table2 has a usable index, the index is probed, skipping the
+     * values a Bloom filter rules out; otherwise a hash set of table2's join values is
+     * built.  The tuples of this table are probed in parallel parts.
+     *
+     * @param cols1   the join columns of this table
+     * @param cols2   the join columns of table2
+     * @param table2  the table to look in
+     * @param has     set to whether each tuple of this table has a match
+     * @param call    the operator call (to count index probes)
+     * @return  a description of the plan (for EXPLAIN)
      */
-    public void printTup (Comparable [] tup)
+    private String matches (int [] cols1, int [] cols2, Table table2, boolean [] has, Metrics.Call call)
     {
-        out.print ("| ");
-        for (var attr : tup) out.printf ("%15s", attr);
-        out.println (" |");
-    } // printTup
+        var n    = tuples.size ();
+        var kPos = table2.keyPos ();
+
+        if (table2.indexed () && cols2.length == kPos.length) {
+            var on = new int [kPos.length];                        // this table's columns in table2's key order
+            var ok = true;
+            for (var k = 0; k < kPos.length && ok; k++) {
+                ok = false;
+                for (var j = 0; j < cols2.length; j++) {
+                    if (cols2 [j] == kPos [k]) { on [k] = cols1 [j]; ok = true; }
+                } // for
+            } // for
+            if (ok) {                                              // probe table2's index
+                var filter = BLOOM ? table2.bloom (kPos) : null;
+                var probes = new LongAdder ();
+                inParts (n, (from, to) -> {
+                    var probe = new KeyType.Probe (on);
+                    var buf   = new Comparable [domain.length];
+                    var p     = 0;
+                    for (var i = from; i < to; i++) {
+                        probe.on (columns (i, on, buf));
+                        if (filter != null && ! filter.mightContain (probe.hashCode ())) continue;
+                        p++;
+                        has [i] = table2.index.get (probe) != null;
+                    } // for
+                    probes.add (p);
+                });
+                call.probes (probes.sum ());
+                return STR."probe \{table2.name}'s index (\{mType})" + (BLOOM ? ", Bloom filter" : "");
+            } // if
+        } // if
+
+        var m      = table2.tuples.size ();                        // hash table2's join values
+        var values = HashSet.<KeyType> newHashSet (m);
+        for (var j = 0; j < m; j++) values.add (KeyType.of (table2.tuples.get (j), cols2));
+        inParts (n, (from, to) -> {
+            var probe = new KeyType.Probe (cols1);
+            var buf   = new Comparable [domain.length];
+            for (var i = from; i < to; i++) has [i] = values.contains (probe.on (columns (i, cols1, buf)));
+        });
+        return STR."hash set on \{table2.name}'s join values";
+    } // matches
 
     /************************************************************************************
-     * Print this table.
+     * Join this table and table2 by performing an NATURAL JOIN.  Tuples from both tables
+     * are compared requiring common attributes to be equal.  The duplicate column is also
+     * eliminated.  When the common attributes are table2's primary key and table2 has an
+     * index, each tuple of this table probes it (INDEXED JOIN); otherwise a HASH JOIN
+     * builds a hash table on the smaller table and probes it with the other.  With no
+     * common attributes, the result is the cartesian product.
+     *
+     * #usage movieStar.join (starsIn)
+     *
+     * @param table2  the rhs table in the join operation
+     * @return  a table with tuples satisfying the equality predicate
      */
-    public void print ()
+    public Table join (Table table2)
     {
-        out.println (STR."\n Table \{name}");
-        out.print ("|-");
-        out.print ("---------------".repeat (attribute.length));
-        out.println ("-|");
-        out.print ("| ");
-        for (var a : attribute) out.printf ("%15s", a);
-        out.println (" |");
-        out.print ("|-");
-        out.print ("---------------".repeat (attribute.length));
-        out.println ("-|");
-        for (var tup : tuples) printTup (tup);
-        out.print ("|-");
-        out.print ("---------------".repeat (attribute.length));
-        out.println ("-|");
-    } // print
+        out.println (STR."RA> \{name}.join (\{table2.name})");
+        var call = Metrics.start ("natural_join", "", this, table2);
+
+        var common = new ArrayList <String> ();                    // the common attributes
+        for (var a : attribute) if (table2.col (a) >= 0) common.add (a);
+        var keep = new ArrayList <Integer> ();                     // columns of table2 that are not common
+        for (var j = 0; j < table2.attribute.length; j++) {
+            if (col (table2.attribute [j]) < 0) keep.add (j);
+        } // for
+        var keep2 = keep.stream ().mapToInt (Integer::intValue).toArray ();
+        for (var a : common) {
+            if (domain [col (a)] != table2.domain [table2.col (a)]) {
+                out.println (STR."join ERROR: tables disagree on the domain of \{a}");
+                return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, new ArrayList <> ()));
+            } // if
+        } // for
+
+        var rows  = new ArrayList <Comparable []> ();
+        var nTups = tuples.size ();
+        var mTups = table2.tuples.size ();
+
+        if (common.isEmpty ()) {                                   // CARTESIAN PRODUCT
+            call.detail ("cartesian product");
+            for (var i = 0; i < nTups; i++) {
+                var t = tuples.get (i);
+                for (var j = 0; j < mTups; j++) rows.add (concat (t, extract (table2.tuples.get (j), keep2)));
+            } // for
+
+        } else if (table2.indexed () && new HashSet <> (common).equals (new HashSet <> (Arrays.asList (table2.key)))) {
+            var probe = new KeyType.Probe (match (table2.key));    // this table's columns in table2's key order
+            var filter = BLOOM ? table2.bloom (table2.keyPos ()) : null;
+            call.detail (STR."indexed join, probing \{table2.name}'s index (\{mType})" + (BLOOM ? ", Bloom filter" : ""));
+            for (var i = 0; i < nTups; i++) {                      // INDEXED JOIN
+                var t = tuples.get (i);
+                if (filter != null && ! filter.mightContain (probe.on (t).hashCode ())) continue;
+                call.probes (1);
+                var u = table2.index.get (probe.on (t));
+                if (u != null) rows.add (concat (t, extract (u, keep2)));
+            } // for
+
+        } else {                                                   // HASH JOIN on the smaller table
+            var cols1 = match (common.toArray (new String [0]));
+            var cols2 = table2.match (common.toArray (new String [0]));
+            var buildThis = nTups < mTups;
+            var build = buildThis ? tuples : table2.tuples;
+            var bCols = buildThis ? cols1 : cols2;
+            call.detail (STR."hash join, building on \{buildThis ? name : table2.name}");
+            var table = new HashMap <KeyType, List <Comparable []>> ();
+            for (var i = 0; i < build.size (); i++) {
+                var t = build.get (i);
+                table.computeIfAbsent (KeyType.of (t, bCols), k -> new ArrayList <> (1)).add (t);
+            } // for
+
+            var probeSide = buildThis ? table2.tuples : tuples;
+            var probe = new KeyType.Probe (buildThis ? cols2 : cols1);
+            for (var i = 0; i < probeSide.size (); i++) {
+                var t  = probeSide.get (i);
+                var ms = table.get (probe.on (t));
+                if (ms == null) continue;
+                for (var m : ms) rows.add (buildThis ? concat (m, extract (t, keep2)) : concat (t, extract (m, keep2)));
+            } // for
+        } // if
+
+        var attrs2 = new String [keep2.length];
+        for (var j = 0; j < keep2.length; j++) attrs2 [j] = table2.attribute [keep2 [j]];
+        var newKey = key;                                          // this key determines the tuple unless
+        if (! common.containsAll (Arrays.asList (table2.key))) {   // table2's key is not all in common
+            var k = new ArrayList <> (Arrays.asList (key));
+            for (var a : table2.key) if (! k.contains (a)) k.add (a);
+            newKey = k.toArray (new String [0]);
+        } // if
+
+        return call.end (new Table (name + count.getAndIncrement (), concat (attribute, attrs2),
+                          concat (domain, extractDom (keep2, table2.domain)), newKey, rows));
+    } // join
 
     /************************************************************************************
-     * Print this table's index (Map).
+     * Group the tuples on the given attributes and compute the aggregate functions count,
+     * sum, min, max, avg and countDistinct for each group (count(*) counts the rows).
+     * Uses HASH AGGREGATION over parts of the table in parallel, merging the partial
+     * aggregates at the end.  When the groups exceed GROUP_BUDGET, it falls back to SORT
+     * AGGREGATION: the tuples are sorted on the group-by attributes and each run of equal
+     * values is aggregated, holding only one group's accumulators at a time.
+     *
+     * #usage transcript.groupBy ("studId", "count(*) avg(grade)")
+     *
+     * @param attributes  the attributes to group on (may be empty for a single group)
+     * @param aggregates  the aggregate functions to compute
+     * @return  a table with a tuple per group: the group-by values then the aggregates
      */
-    public void printIndex ()
+    public Table groupBy (String attributes, String aggregates)
     {
-        out.println (STR."\n Index for \{name}");
-        out.println ("-------------------");
-        if (mType != MapType.NO_MAP) {
-            for (var e : index.entrySet ()) {
-                out.println (STR."\{e.getKey ()} -> \{Arrays.toString (e.getValue ())}");
-            } // for
+        out.println (STR."RA> \{name}.groupBy (\{attributes}, \{aggregates})");
+        var call = Metrics.start ("groupBy", STR."\{attributes}, \{aggregates}", this);
+
+        var attrs = attributes.isBlank () ? new String [0] : attributes.trim ().split (" ");
+        for (var a : attrs) {
+            if (col (a) < 0) throw new IllegalArgumentException (STR."groupBy: unknown attribute \{a}");
+        } // for
+        var cols = match (attrs);
+        var aggs = new Aggregates (aggregates, attribute, domain);
+
+        var rows = hashAggregate (cols, aggs);
+        call.detail ("hash aggregation");
+        if (rows == null) {
+            rows = sortAggregate (cols, aggs);
+            call.detail ("sort aggregation, " + sortPlan ());
         } // if
-        out.println ("-------------------");
-    } // printIndex
+
+        return call.end (new Table (name + count.getAndIncrement (), concat (attrs, aggs.name),
+                          concat (extractDom (cols, domain), aggs.resultDomain),
+                          (attrs.length > 0) ? attrs : aggs.name, rows));
+    } // groupBy
 
     /************************************************************************************
-     * Load the table with the given name into memory. 
+     * Order the tuples on the given attributes (the first attribute most significant),
+     * nulls first when ascending.  Uses a parallel in-memory sort, or an EXTERNAL MERGE
+     * SORT when the table has more than SORT_BUDGET tuples.  The sort is stable.  The
+     * result is a table on the heap, so for an order larger than memory pass a sink.
      *
-     * @param name  the name of the table to load
+     * #usage movie.orderBy ("year title", true)
+     *
+     * @param attributes  the attributes to order on
+     * @param ascending   whether to order ascending (else descending)
+     * @return  a table with the tuples in order
      */
-    public static Table load (String name)
+    public Table orderBy (String attributes, boolean ascending)
     {
-        Table tab = null;
-        try {
-            ObjectInputStream ois = new ObjectInputStream (new FileInputStream (DIR + name + EXT));
-            tab = (Table) ois.readObject ();
-            ois.close ();
+        out.println (STR."RA> \{name}.orderBy (\{attributes}, \{ascending})");
+        var call = Metrics.start ("orderBy", STR."\{attributes}, \{ascending}", this);
+        call.detail (sortPlan ());
+
+        var order = order (attributes, ascending, "orderBy");
+        var rows  = new ArrayList <Comparable []> (tuples.size ());
+        sorted (order).forEachRemaining (rows::add);
+
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, rows));
+    } // orderBy
+
+    /************************************************************************************
+     * Order the tuples on the given attributes, as above, passing them in order to sink
+     * rather than collecting them in a table.  Beyond SORT_BUDGET tuples, they are read
+     * from the merged runs of the external merge sort as they are passed on, so an order
+     * larger than memory may be written out without ever being held on the heap.
+     *
+     * #usage try (var w = TableIO.csvWriter ("movies.csv", ',', null)) { movie.orderBy ("year", true, w); }
+     *
+     * @param attributes  the attributes to order on
+     * @param ascending   whether to order ascending (else descending)
+     * @param sink        the consumer of the ordered tuples
+     */
+    public void orderBy (String attributes, boolean ascending, Consumer <Comparable []> sink)
+    {
+        out.println (STR."RA> \{name}.orderBy (\{attributes}, \{ascending})");
+        var call = Metrics.start ("orderBy", STR."\{attributes}, \{ascending}", this);
+        call.detail (sortPlan ());
+
+        var rowsOut = 0L;
+        for (var it = sorted (order (attributes, ascending, "orderBy")); it.hasNext (); rowsOut++) sink.accept (it.next ());
+        call.end (rowsOut);
+    } // orderBy
+
+    /************************************************************************************
+     * Return the first k tuples in the given order, found by keeping the best k tuples
+     * so far in a (max) heap for each part of the table, so the table is never sorted.
+     *
+     * #usage movie.topK ("length", false, 10)
+     *
+     * @param attributes  the attributes to order on
+     * @param ascending   whether to order ascending (else descending)
+     * @param k           the number of tuples to return
+     * @return  a table with the first k tuples in order
+     */
+    public Table topK (String attributes, boolean ascending, int k)
+    {
+        out.println (STR."RA> \{name}.topK (\{attributes}, \{ascending}, \{k})");
+        var call = Metrics.start ("topK", STR."\{attributes}, \{ascending}, \{k}", this);
+        call.detail ("bounded heap per part");
+        if (k < 0) throw new IllegalArgumentException (STR."topK: negative k \{k}");
+
+        var order = order (attributes, ascending, "topK");
+        var n     = tuples.size ();
+        var parts = Math.max (1, Math.min (ForkJoinPool.getCommonPoolParallelism (), n / 10000));
+        var best  = IntStream.range (0, parts).parallel ()
+                             .mapToObj (p -> topK ((int) ((long) p * n / parts),
+                                                   (int) ((long) (p + 1) * n / parts), order, k))
+                             .flatMap (Collection::stream)
+                             .sorted (order)
+                             .limit (k)
+                             .toList ();
+
+        return call.end (new Table (name + count.getAndIncrement (), attribute, domain, key, new ArrayList <> (best)));
+    } // topK
+
+    /************************************************************************************
+     * Return the column position for the given attribute name or -1 if not found.
+     *
+     * @param attr  the given attribute name
+     * @return  a column position
+     */
+    public int col (String attr)
+    {
+        for (var i = 0; i < attribute.length; i++) {
+           if (attr.equals (attribute [i])) return i;
+
+        } // for
+
+        return -1;       // -1 => not found
+    } // col
+
+    /************************************************************************************
+     * Dictionary encode the given String attribute: its distinct values are kept once
+     * and given int codes, and conditions and equi-joins on it compare the codes.  With
+     * ordered codes, range conditions (<, <=, >, >=) are also tested on the codes.
+     * Encoding an attribute already encoded does nothing.
+     *
+     * #usage student.encode ("status", false)
+     *
+     * @param attribute  the String attribute to encode
+     * @param ordered    whether the codes are to preserve the order of the values
+     */
+    public void encode (String attribute, boolean ordered)
+    {
+        var j = col (attribute);
+        if (j < 0) throw new IllegalArgumentException (STR."encode: unknown attribute \{attribute}");
+        if (domain [j] != String.class)
+            throw new IllegalArgumentException (STR."encode: \{attribute} is not a String attribute");
+
+        writeLock.lock ();
+        try {
+            var ds = (dicts == null) ? new ConcurrentHashMap <Integer, DictionaryColumn> () : dicts;
+            var d  = ds.computeIfAbsent (j, c -> new DictionaryColumn (c, ordered));
+            d.extend (tuples);
+            dicts = ds;
+            out.println (STR."DDL> encode \{name}.\{attribute} (\{d.size ()} distinct values)");
+        } finally {
+            writeLock.unlock ();
+        } // try
+    } // encode
+
+    /************************************************************************************
+     * Insert a tuple to the table.
+     *
+     * #usage movie.insert ("Star_Wars", 1977, 124, "T", "Fox", 12345)
+     *
+     * @param tup  the array of attribute values forming the tuple
+     * @return  the insertion position/index when successful, else -1
+     */
+    public int insert (Comparable [] tup)
+    {
+        out.println (STR."DML> insert into \{name} values (\{Arrays.toString (tup)})");
+        var call = Metrics.start ("insert", 1);
+
+        if (! typeCheck (tup)) {                                   // insert failed
+            call.end (0);
+            return -1;
+        } // if
+
+        writeLock.lock ();
+        try {
+            tuples.add (tup);
+            if (mType != MapType.NO_MAP && ! indexPositions (tuples.size () - 1, tuples.size ()))
+                index.put (keyOf (tup), tup);
+            zones ();                                              // extend the zone map
+            if (dicts != null) for (var d : dicts.values ()) d.extend (tuples);
+            changed ();
+            return tuples.size () - 1;                             // assumes it is added at the end
+        } finally {
+            writeLock.unlock ();
+            call.end (1);
+        } // try
+    } // insert
+
+    /************************************************************************************
+     * Insert a batch of tuples into the table (bulk load).  Each column is type checked
+     * once for the whole batch, the tuples are appended together and the index is built
+     * (or merged) once at the end, using a presized HashMap or B+Tree bulk loading.
+     * Tuples failing the type check or with a null in the primary key are skipped, before
+     * any tuple is appended.
+     *
+     * #usage student.insertAll (generator.generate (new int [] { 1000000 }) [0])
+     *
+     * @param tups  the batch of tuples to insert
+     * @return  the number of tuples inserted
+     */
+    public int insertAll (List <Comparable []> tups)
+    {
+        out.println (STR."DML> insert into \{name} values (\{tups.size ()} tuples)");
+        var call = Metrics.start ("insertAll", tups.size ());
+        var ok   = typeCheck (tups);
+
+        writeLock.lock ();
+        try {
+            var first = tuples.size ();
+            append (tups, ok);
+
+            indexAll (first);
+            zones ();                                              // extend the zone map
+            if (dicts != null) for (var d : dicts.values ()) d.extend (tuples);
+            changed ();
+            return (int) call.end (tuples.size () - first);
+        } finally {
+            writeLock.unlock ();
+        } // try
+    } // insertAll
+
+    /************************************************************************************
+     * Append a batch of tuples as part of a streamed load (e.g., by the TupleGenerator),
+     * like insertAll but leaving the tuples out of the index until endLoad, so the index
+     * is built once for the whole load rather than per batch.  Until then, key lookups
+     * scan the table.  Other inserts should not be made during the load.
+     *
+     * @param tups  the batch of tuples to append
+     * @return  the number of tuples appended
+     */
+    int append (List <Comparable []> tups)
+    {
+        var ok = typeCheck (tups);
+
+        writeLock.lock ();
+        try {
+            var first = tuples.size ();
+            append (tups, ok);
+            if (unindexed < 0) unindexed = first;
+            zones ();                                              // extend the zone map
+            if (dicts != null) for (var d : dicts.values ()) d.extend (tuples);
+            changed ();
+            return tuples.size () - first;
+        } finally {
+            writeLock.unlock ();
+        } // try
+    } // append
+
+    /************************************************************************************
+     * End a streamed load: index the tuples appended since it began, in one pass.
+     *
+     * @return  the number of tuples loaded
+     */
+    int endLoad ()
+    {
+        writeLock.lock ();
+        try {
+            if (unindexed < 0) return 0;
+            var n = tuples.size () - unindexed;
+            out.println (STR."DML> insert into \{name} values (\{n} tuples)");
+            var call = Metrics.start ("insertAll", n);
+            indexAll (unindexed);
+            unindexed = -1;
+            changed ();
+            return (int) call.end (n);
+        } finally {
+            writeLock.unlock ();
+        } // try
+    } // endLoad
+
+    /************************************************************************************
+     * Type check a batch of tuples, one column at a time, rejecting those with a null in
+     * the primary key (which the index cannot hold).
+     *
+     * @param tups  the batch of tuples
+     * @return  whether each tuple may be inserted
+     */
+    private boolean [] typeCheck (List <Comparable []> tups)
+    {
+        var n  = tups.size ();
+        var ok = new boolean [n];
+        for (var j = 0; j < n; j++) ok [j] = tups.get (j).length >= domain.length;
+        for (var k = 0; k < domain.length; k++) {                  // type check column k
+            var dom = domain [k];
+            for (var j = 0; j < n; j++) {
+                if (ok [j]) {
+                    var v = tups.get (j) [k];
+                    if (v != null && v.getClass () != dom) ok [j] = false;
+                } // if
+            } // for
+        } // for
+        for (var k : keyPos ()) {                                  // the index cannot hold null keys
+            for (var j = 0; j < n; j++) if (ok [j] && tups.get (j) [k] == null) ok [j] = false;
+        } // for
+        return ok;
+    } // typeCheck
+
+    /************************************************************************************
+     * Append the tuples of a batch that passed the type check (holding the write lock).
+     *
+     * @param tups  the batch of tuples
+     * @param ok    whether each tuple passed
+     */
+    private void append (List <Comparable []> tups, boolean [] ok)
+    {
+        if (tuples instanceof ArrayList <Comparable []> list) list.ensureCapacity (tuples.size () + tups.size ());
+        for (var j = 0; j < ok.length; j++) if (ok [j]) tuples.add (tups.get (j));
+    } // append
+
+    /************************************************************************************
+     * Insert a batch of tuples into the table (bulk load), e.g., the tuples generated for
+     * one table by the TupleGenerator.
+     *
+     * @param tups  the batch of tuples to insert
+     * @return  the number of tuples inserted
+     */
+    public int insertAll (Comparable [][] tups)
+    {
+        return insertAll (Arrays.asList (tups));
+    } // insertAll
+
+    /************************************************************************************
+     * Get the tuple at index position i.
+     *
+     * @param i  the index of the tuple being sought
+     * @return  the tuple at index position i
+     */
+    public Comparable [] get (int i)
+    {
+        return tuples.get (i);
+    } // get
+
+    /************************************************************************************
+     * Return the shared cache of query results (e.g., for its hit, miss and eviction
+     * counters).
+     *
+     * @return  the result cache
+     */
+    public static ResultCache cache ()
+    {
+        return cache;
+    } // cache
+
+    /************************************************************************************
+     * Get the name of the table.
+     *
+     * @return  the table's name
+     */
+    public String getName ()
+    {
+        return name;
+    } // getName
+
+    /************************************************************************************
+     * Print tuple tup.
+     * @param tup  the array of attribute values forming the tuple
+     */
+    public void printTup (Comparable [] tup)
+    {
+        var sb = new StringBuilder ();
+        formatTup (sb, tup);
+        out.print (sb);
+    } // printTup
+
+    /************************************************************************************
+     * Print this table.
+     */
+    public void print ()
+    {
+        print (0, tuples.size ());
+    } // print
+
+    /************************************************************************************
+     * Print the first limit tuples of this table (for looking at a large result).
+     *
+     * #usage transcript.join (student).print (20)
+     *
+     * @param limit  the maximum number of tuples to print
+     */
+    public void print (int limit)
+    {
+        print (0, limit);
+    } // print
+
+    /************************************************************************************
+     * Print a page of this table: limit tuples starting at position from.  The lines
+     * are formatted into a buffer that is written out every 64K characters, rather than
+     * formatting each value onto the (unbuffered) output.
+     *
+     * #usage movie.print (100, 50)
+     *
+     * @param from   the position of the first tuple to print
+     * @param limit  the maximum number of tuples to print
+     */
+    public void print (int from, int limit)
+    {
+        var n     = tuples.size ();
+        var first = Math.min (n, Math.max (0, from));
+        var to    = (int) Math.min (n, first + (long) Math.max (0, limit));
+        var line  = "|-" + "---------------".repeat (attribute.length) + "-|\n";
+        var sb    = new StringBuilder (1 << 16);
+        sb.append (STR."\n Table \{name}\n").append (line);
+        formatTup (sb, attribute);
+        sb.append (line);
+        for (var i = first; i < to; i++) {
+            formatTup (sb, tuples.get (i));
+            if (sb.length () >= 1 << 16) { out.print (sb); sb.setLength (0); }
+        } // for
+        sb.append (line);
+        if (first > 0 || to < n) sb.append (STR." (tuples \{first} until \{to} of \{n})\n");
+        out.print (sb);
+    } // print
+
+    /************************************************************************************
+     * Format the values of a tuple (or the attribute names) as a line of the printed
+     * table, each right justified in 15 characters.
+     *
+     * @param sb      the buffer to append the line to
+     * @param values  the values to format
+     */
+    private static void formatTup (StringBuilder sb, Object [] values)
+    {
+        sb.append ("| ");
+        for (var v : values) {
+            var s = String.valueOf (v);
+            for (var k = s.length (); k < 15; k++) sb.append (' ');
+            sb.append (s);
+        } // for
+        sb.append (" |\n");
+    } // formatTup
+
+    /************************************************************************************
+     * Print this table's index (Map).
+     */
+    public void printIndex ()
+    {
+        out.println (STR."\n Index for \{name}");
+        out.println ("-------------------");
+        if (mType != MapType.NO_MAP) {
+            for (var e : index.entrySet ()) {
+                out.println (STR."\{e.getKey ()} -> \{Arrays.toString (e.getValue ())}");
+            } // for
+        } // if
+        out.println ("-------------------");
+    } // printIndex
+
+    /************************************************************************************
+     * Load the table with the given name into memory. 
+     *
+     * @param name  the name of the table to load
+     */
+    public static Table load (String name)
+    {
+        var call = Metrics.start ("load", 0);
+        Table tab = null;
+        try {
+            ObjectInputStream ois = new ObjectInputStream (new FileInputStream (DIR + name + EXT));
+            tab = (Table) ois.readObject ();
+            ois.close ();
         } catch (IOException ex) {
             out.println ("load: IO Exception");
             ex.printStackTrace ();
@@ -778,7 +1699,7 @@ public class Table
             out.println ("load: Class Not Found Exception");
             ex.printStackTrace ();
         } // try
-        return tab;
+        return call.end (tab);
     } // load
 
     /************************************************************************************
@@ -786,6 +1707,7 @@ public class Table
      */
     public void save ()
     {
+        var call = Metrics.start ("save", tuples.size ());
         try {
             var oos = new ObjectOutputStream (new FileOutputStream (DIR + name + EXT));
             oos.writeObject (this);
@@ -794,12 +1716,102 @@ public class Table
             out.println ("save: IO Exception");
             ex.printStackTrace ();
         } // try
+        call.end (tuples.size ());
     } // save
 
+    /************************************************************************************
+     * Return the number of tuples in the table.
+     */
+    int rows ()
+    {
+        return tuples.size ();
+    } // rows
+
+    /************************************************************************************
+     * Return the names of the table's attributes.
+     */
+    String [] attributes ()
+    {
+        return attribute;
+    } // attributes
+
+    /************************************************************************************
+     * Return the domains (data types) of the table's attributes.
+     */
+    Class [] domains ()
+    {
+        return domain;
+    } // domains
+
+    /************************************************************************************
+     * Return the type of the table's usable index, or "no index" (for EXPLAIN).
+     */
+    String indexType ()
+    {
+        return indexed () ? mType + " index" : "no index";
+    } // indexType
+
+    /************************************************************************************
+     * Return the version of the table's tuples (bumped by every insert).
+     */
+    long version ()
+    {
+        return version;
+    } // version
+
     //----------------------------------------------------------------------------------
     // Private Methods
     //----------------------------------------------------------------------------------
 
+    /************************************************************************************
+     * Return the identity of this table, assigning it on first use.
+     */
+    private long id ()
+    {
+        if (id == 0) {
+            synchronized (this) { if (id == 0) id = ids.incrementAndGet (); }
+        } // if
+        return id;
+    } // id
+
+    /************************************************************************************
+     * Make the result cache key for a query on this table: the operator, the identity
+     * and version of this table, then the arguments, where a table argument is replaced
+     * by its identity and version (and a key probe by a copy, since probes change).
+     *
+     * @param op    the operator
+     * @param args  the (normalized) arguments
+     * @return  the key for the query
+     */
+    private List <Object> cacheKey (String op, Object ... args)
+    {
+        var k = new ArrayList <Object> (3 + 2 * args.length);
+        k.add (op); k.add (id ()); k.add (version);
+        cached = true;
+        for (var a : args) {
+            switch (a) {
+                case Table t -> { k.add (t.id ()); k.add (t.version); t.cached = true; }
+                case KeyType.Probe p -> k.add (p.copy ());
+                default -> k.add (a);
+            } // switch
+        } // for
+        return k;
+    } // cacheKey
+
+    /************************************************************************************
+     * Record that the tuples changed: bump the version and drop the cached results that
+     * were computed from this table.  Called by the writers (holding the write lock).
+     */
+    private void changed ()
+    {
+        version++;
+        blooms = null;
+        if (cached) {
+            cached = false;
+            cache.invalidate (id);
+        } // if
+    } // changed
+
     /************************************************************************************
      * Determine whether the two tables (this and table2) are compatible, i.e., have
      * the same number of attributes each with the same corresponding domain.
@@ -846,6 +1858,564 @@ public class Table
         return colPos;
     } // match
 
+    /************************************************************************************
+     * Return the column positions of the primary key, resolving them on first use.
+     *
+     * @return  an array of column index positions
+     */
+    int [] keyPos ()
+    {
+        if (keyPos == null) keyPos = match (key);
+        return keyPos;
+    } // keyPos
+
+    /************************************************************************************
+     * Return whether this table has an index covering all of its tuples, so that key
+     * lookups may use it (result tables built from a list of tuples are not indexed).
+     *
+     * @return  whether the index is usable
+     */
+    private boolean indexed ()
+    {
+        return index != null && index.size () == tuples.size ();
+    } // indexed
+
+    /************************************************************************************
+     * Return the value of column j of the tuple at position i, reading it directly when
+     * the tuples are stored off-heap (rather than creating the whole tuple).
+     *
+     * @param i  the position of the tuple
+     * @param j  the column
+     * @return  the value t_i[j]
+     */
+    private Comparable value (int i, int j)
+    {
+        return (tuples instanceof OffHeapTupleList list) ? list.value (i, j) : tuples.get (i) [j];
+    } // value
+
+    /************************************************************************************
+     * Return the tuple at position i for reading just the columns cols: the tuple itself
+     * when on the heap, otherwise the scratch array buf with only those columns read in.
+     *
+     * @param i     the position of the tuple
+     * @param cols  the columns to be read
+     * @param buf   a scratch array of the table's arity (one per thread)
+     * @return  an array holding (at least) the values t_i[cols]
+     */
+    private Comparable [] columns (int i, int [] cols, Comparable [] buf)
+    {
+        if (! (tuples instanceof OffHeapTupleList list)) return tuples.get (i);
+        for (var c : cols) buf [c] = list.value (i, c);
+        return buf;
+    } // columns
+
+    /************************************************************************************
+     * Add the tuples at positions first (inclusive) to last (exclusive) to the index by
+     * position, when it is a DINDEX_MAP's TupleMap (possibly wrapped in a LockedMap when
+     * CONCURRENT), rather than putting each tuple, which a TupleMap would have to find.
+     *
+     * @param first  the first position
+     * @param last   the position after the last
+     * @return  whether the index records positions (otherwise nothing is added)
+     */
+    private boolean indexPositions (int first, int last)
+    {
+        if (index instanceof DIndex.TupleMap dmap) {
+            dmap.addAll (first, last);
+            return true;
+        } // if
+        return index instanceof LockedMap <KeyType, Comparable []> lmap && lmap.addAll (first, last);
+    } // indexPositions
+
+    /************************************************************************************
+     * Form the primary key of tuple t.
+     *
+     * @param t  the tuple whose key is sought
+     * @return  the primary key of t
+     */
+    private KeyType keyOf (Comparable [] t)
+    {
+        return KeyType.of (t, keyPos ());
+    } // keyOf
+
+    /************************************************************************************
+     * Add the tuples from position first onward to the index in one pass.  A HASH_MAP is
+     * rebuilt presized when the batch at least doubles it, a BPTREE_MAP is bulk loaded
+     * bottom-up, a DINDEX_MAP records the positions, and the other maps have the keys put
+     * one at a time.
+     *
+     * @param first  the position of the first tuple not yet indexed
+     */
+    @SuppressWarnings("unchecked")
+    private void indexAll (int first)
+    {
+        var last = tuples.size ();
+        if (indexPositions (first, last)) return;                  // DINDEX_MAP: record the positions
+        if (CONCURRENT && index != null) {                         // readers may be using the index
+            for (var j = first; j < last; j++) index.put (keyOf (tuples.get (j)), tuples.get (j));
+            return;
+        } // if
+        switch (mType) {
+        case NO_MAP -> { }
+        case HASH_MAP -> {
+            if (last - first >= index.size ()) {                   // at least doubles: rebuild presized
+                var map = HashMap.<KeyType, Comparable []> newHashMap (last);
+                map.putAll (index);
+                index = map;
+            } // if
+            for (var j = first; j < last; j++) index.put (keyOf (tuples.get (j)), tuples.get (j));
+        } // case
+        case BPTREE_MAP -> {
+            var entries = new ArrayList <Map.Entry <KeyType, Comparable []>> (last - first);
+            for (var j = first; j < last; j++) entries.add (Map.entry (keyOf (tuples.get (j)), tuples.get (j)));
+            ((BpTreeMap <KeyType, Comparable []>) index).bulkLoad (entries);
+        } // case
+        default -> {
+            for (var j = first; j < last; j++) index.put (keyOf (tuples.get (j)), tuples.get (j));
+        } // case
+        } // switch
+    } // indexAll
+
+    /************************************************************************************
+     * Determine, for each tuple of this table, whether an equal tuple (on all attributes)
+     * is in the compatible table2.  If table2 has a usable index, each tuple is looked up
+     * by its key and compared with the tuple found; otherwise a TupleSet is built over the
+     * smaller of the two tables.  Large tables are probed in parallel parts.
+     *
+     * @param table2  the table to look in
+     * @return  whether each tuple of this table is in table2
+     */
+    private boolean [] found (Table table2)
+    {
+        var n  = tuples.size ();
+        var in = new boolean [n];
+
+        if (table2.indexed ()) {                                   // probe table2's index
+            var cols = table2.keyPos ();
+            inParts (n, (from, to) -> {
+                var probe = new KeyType.Probe (cols);
+                for (var i = from; i < to; i++) {
+                    var t = tuples.get (i);
+                    var u = table2.index.get (probe.on (t));
+                    in [i] = u != null && Arrays.equals (t, u);
+                } // for
+            });
+            return in;
+        } // if
+
+        var small = (table2.tuples.size () <= n) ? table2 : this;
+        var big   = (small == this) ? table2 : this;
+        var set   = small.tupleSet ();
+        if (small == table2) {                                     // probe with this table
+            inParts (n, (from, to) -> {
+                for (var i = from; i < to; i++) in [i] = set.contains (tuples.get (i));
+            });
+        } else {                                                   // collect the matches in table2
+            var m     = big.tuples.size ();
+            var match = new boolean [m];
+            inParts (m, (from, to) -> {
+                for (var j = from; j < to; j++) match [j] = set.contains (big.tuples.get (j));
+            });
+            var common = new TupleSet (n);
+            for (var j = 0; j < m; j++) if (match [j]) common.add (big.tuples.get (j));
+            inParts (n, (from, to) -> {
+                for (var i = from; i < to; i++) in [i] = common.contains (tuples.get (i));
+            });
+        } // if
+        return in;
+    } // found
+
+    /************************************************************************************
+     * Return the zone map of this table, brought up to date with the tuples (it is made
+     * on first use, e.g., for a result table or a table saved without one).
+     *
+     * @return  the zone map
+     */
+    private ZoneMap zones ()
+    {
+        var z = zones;
+        if (z == null) {
+            synchronized (this) {
+                if (zones == null) zones = new ZoneMap (domain.length, ZONE_BLOCK);
+                z = zones;
+            } // synchronized
+        } // if
+        z.extend (tuples);
+        return z;
+    } // zones
+
+    /************************************************************************************
+     * Return the dictionary of the given column, or null if it is not encoded.
+     *
+     * @param j  the column
+     * @return  the column's dictionary
+     */
+    private DictionaryColumn dict (int j)
+    {
+        var ds = dicts;
+        return (ds == null) ? null : ds.get (j);
+    } // dict
+
+    /************************************************************************************
+     * Return a Bloom filter on the values of the given columns of this table's tuples,
+     * built on first use and kept until the table changes (the version is read before
+     * the tuples, so a concurrent insert can only add keys to the filter, never lose
+     * them).
+     *
+     * @param cols  the columns, e.g., the join attributes
+     * @return  the Bloom filter
+     */
+    private BloomFilter bloom (int [] cols)
+    {
+        var bs = blooms;
+        if (bs == null) blooms = bs = new ConcurrentHashMap <> ();
+        var v = version;
+        return bs.computeIfAbsent (v + ":" + Arrays.toString (cols), c -> {
+            var n      = tuples.size ();
+            var filter = new BloomFilter (n, BLOOM_FPP);
+            var probe  = new KeyType.Probe (cols);
+            var buf    = new Comparable [domain.length];
+            for (var i = 0; i < n; i++) filter.add (probe.on (columns (i, cols, buf)).hashCode ());
+            return filter;
+        });
+    } // bloom
+
+    /************************************************************************************
+     * Describe how found (table2) finds the tuples of this table in table2 (for EXPLAIN).
+     *
+     * @param table2  the table to look in
+     * @return  the description of the plan
+     */
+    private String foundPlan (Table table2)
+    {
+        if (table2.indexed ()) return STR."probe \{table2.name}'s index (\{mType})";
+        var small = (table2.tuples.size () <= tuples.size ()) ? table2 : this;
+        return STR."hash set on \{small.name}";
+    } // foundPlan
+
+    /************************************************************************************
+     * Describe how sorted sorts the tuples of this table (for EXPLAIN).
+     */
+    private String sortPlan ()
+    {
+        var n = tuples.size ();
+        return (n <= SORT_BUDGET) ? "in-memory parallel sort"
+                                  : STR."external merge sort, \{(n + SORT_BUDGET - 1) / SORT_BUDGET} runs";
+    } // sortPlan
+
+    /************************************************************************************
+     * Return a TupleSet holding the tuples of this table (hashed in parallel).
+     */
+    private TupleSet tupleSet ()
+    {
+        var n    = tuples.size ();
+        var hash = new int [n];
+        inParts (n, (from, to) -> {
+            for (var i = from; i < to; i++) hash [i] = TupleSet.hash (tuples.get (i));
+        });
+        var set = new TupleSet (n);
+        for (var i = 0; i < n; i++) set.add (tuples.get (i), hash [i]);
+        return set;
+    } // tupleSet
+
+    /************************************************************************************
+     * Run body over positions 0 until n, split into parts run in parallel (one part for
+     * small n).  Each part is given its first position (inclusive) and last (exclusive).
+     *
+     * @param n     the number of positions
+     * @param body  the work for a part
+     */
+    private static void inParts (int n, BiConsumer <Integer, Integer> body)
+    {
+        var parts = Math.max (1, Math.min (ForkJoinPool.getCommonPoolParallelism (), n / 10000));
+        IntStream.range (0, parts).parallel ()
+                 .forEach (p -> body.accept ((int) ((long) p * n / parts), (int) ((long) (p + 1) * n / parts)));
+    } // inParts
+
+    /************************************************************************************
+     * Hash aggregate the tuples: each part of the table is aggregated (in parallel) into
+     * its own hash table of groups and the partial aggregates are then merged.
+     *
+     * @param cols  the group-by columns
+     * @param aggs  the aggregate functions
+     * @return  the result tuples, or null if a part has more than GROUP_BUDGET groups
+     */
+    private List <Comparable []> hashAggregate (int [] cols, Aggregates aggs)
+    {
+        var n     = tuples.size ();
+        var parts = Math.max (1, Math.min (ForkJoinPool.getCommonPoolParallelism (), n / 10000));
+        var partial = IntStream.range (0, parts).parallel ()
+                               .mapToObj (p -> hashAggregate ((int) ((long) p * n / parts),
+                                                              (int) ((long) (p + 1) * n / parts), cols, aggs))
+                               .toList ();
+        if (partial.contains (null)) return null;
+
+        var total = (parts == 1) ? partial.get (0) : new Aggregates (aggs);
+        if (parts > 1) {
+            var group = new HashMap <KeyType, Integer> ();
+            for (var part : partial) {
+                for (var g = 0; g < part.groups (); g++) {
+                    var key = part.key (g);
+                    var h   = group.computeIfAbsent (key, total::newGroup);
+                    total.merge (h, part, g);
+                } // for
+            } // for
+        } // if
+
+        if (cols.length == 0 && total.groups () == 0) total.newGroup (KeyType.of ());   // one group, even if empty
+        var rows = new ArrayList <Comparable []> (total.groups ());
+        for (var g = 0; g < total.groups (); g++) {
+            var key = total.key (g);
+            var row = new Comparable [cols.length];
+            for (var j = 0; j < cols.length; j++) row [j] = key.get (j);
+            rows.add (concat (row, total.result (g)));
+        } // for
+        return rows;
+    } // hashAggregate
+
+    /************************************************************************************
+     * Hash aggregate the tuples at positions from (inclusive) to to (exclusive).
+     *
+     * @param from  the first position
+     * @param to    the position after the last
+     * @param cols  the group-by columns
+     * @param aggs  the aggregate functions
+     * @return  the partial aggregates, or null if there are more than GROUP_BUDGET groups
+     */
+    private Aggregates hashAggregate (int from, int to, int [] cols, Aggregates aggs)
+    {
+        var part  = new Aggregates (aggs);
+        var group = new HashMap <KeyType, Integer> ();
+        var probe = new KeyType.Probe (cols);
+        for (var i = from; i < to; i++) {
+            var t = tuples.get (i);
+            var g = group.get (probe.on (t));
+            if (g == null) {
+                if (part.groups () == GROUP_BUDGET) return null;
+                var key = probe.copy ();
+                group.put (key, g = part.newGroup (key));
+            } // if
+            part.add (g, t);
+        } // for
+        return part;
+    } // hashAggregate
+
+    /************************************************************************************
+     * Sort aggregate the tuples: sort them on the group-by columns (in parallel, or by an
+     * external merge sort beyond SORT_BUDGET) and aggregate each run of tuples with equal
+     * group-by values.
+     *
+     * @param cols  the group-by columns
+     * @param aggs  the aggregate functions
+     * @return  the result tuples (in group-by order)
+     */
+    private List <Comparable []> sortAggregate (int [] cols, Aggregates aggs)
+    {
+        Comparator <Comparable []> onCols = (a, b) -> compare (a, b, cols);
+        var sorted = sorted (onCols);
+
+        var rows = new ArrayList <Comparable []> ();
+        var acc  = new Aggregates (aggs);
+        acc.newGroup (null);                                       // one set of accumulators, reused
+        Comparable [] prev = null;
+        while (sorted.hasNext ()) {
+            var t = sorted.next ();
+            if (prev != null && onCols.compare (prev, t) != 0) {
+                rows.add (concat (extract (prev, cols), acc.result (0)));
+                acc.reset (0);
+            } // if
+            acc.add (0, t);
+            prev = t;
+        } // while
+        if (prev != null) rows.add (concat (extract (prev, cols), acc.result (0)));
+        else if (cols.length == 0) rows.add (acc.result (0));      // one group, even if empty
+        return rows;
+    } // sortAggregate
+
+    /************************************************************************************
+     * Return the order on the given attributes for orderBy or topK.
+     *
+     * @param attributes  the attributes to order on
+     * @param ascending   whether to order ascending (else descending)
+     * @param op          the operator (for error messages)
+     * @return  the comparator for tuples
+     */
+    private Comparator <Comparable []> order (String attributes, boolean ascending, String op)
+    {
+        var attrs = attributes.trim ().split (" ");
+        for (var a : attrs) {
+            if (col (a) < 0) throw new IllegalArgumentException (STR."\{op}: unknown attribute \{a}");
+        } // for
+        var cols = match (attrs);
+        Comparator <Comparable []> onCols = (a, b) -> compare (a, b, cols);
+        return ascending ? onCols : onCols.reversed ();
+    } // order
+
+    /************************************************************************************
+     * Iterate over the tuples in the given order.  Up to SORT_BUDGET tuples are sorted
+     * in memory (in parallel); beyond it, each SORT_BUDGET tuples are sorted into a run
+     * that is spilled to a temporary file, and the runs are merged as the iterator is
+     * read, so only one run (plus a buffer per run) is held in memory at a time.
+     *
+     * @param order  the order to sort in
+     * @return  an iterator over the sorted tuples
+     */
+    private Iterator <Comparable []> sorted (Comparator <Comparable []> order)
+    {
+        var n = tuples.size ();
+        if (n <= SORT_BUDGET) {
+            var all = new Comparable [n][];
+            for (var i = 0; i < n; i++) all [i] = tuples.get (i);
+            Arrays.parallelSort (all, order);
+            return Arrays.asList (all).iterator ();
+        } // if
+
+        var runs = new ArrayList <Spill> ();
+        try {
+            for (var from = 0; from < n; from += SORT_BUDGET) {
+                var run = new Comparable [Math.min (SORT_BUDGET, n - from)][];
+                for (var i = 0; i < run.length; i++) run [i] = tuples.get (from + i);
+                Arrays.parallelSort (run, order);
+                var spill = new Spill ("run");
+                runs.add (spill);
+                for (var t : run) spill.write (t);
+            } // for
+            return Spill.merge (runs, order);
+        } catch (IOException ex) {
+            for (var spill : runs) spill.close ();
+            throw new UncheckedIOException ("sort: cannot spill a sorted run", ex);
+        } // try
+    } // sorted
+
+    /************************************************************************************
+     * Return the first k tuples in the given order among those at positions from
+     * (inclusive) to to (exclusive), using a heap with the worst of them on top.
+     *
+     * @param from   the first position
+     * @param to     the position after the last
+     * @param order  the order
+     * @param k      the number of tuples to keep
+     * @return  the k (or fewer) best tuples, in no particular order
+     */
+    private List <Comparable []> topK (int from, int to, Comparator <Comparable []> order, int k)
+    {
+        var heap = new PriorityQueue <Comparable []> (Math.max (1, Math.min (k, to - from)), order.reversed ());
+        for (var i = from; i < to && k > 0; i++) {
+            var t = tuples.get (i);
+            if (heap.size () < k) heap.add (t);
+            else if (order.compare (t, heap.peek ()) < 0) {
+                heap.poll ();
+                heap.add (t);
+            } // if
+        } // for
+        return new ArrayList <> (heap);
+    } // topK
+
+    /************************************************************************************
+     * Mark the first occurrence of each distinct tuple.  The tuples are partitioned on
+     * (the high bits of) their hash codes, so equal tuples fall in the same partition, and
+     * each partition is deduplicated with its own TupleSet, in parallel for large inputs.
+     *
+     * @param tups  the tuples
+     * @return  whether each tuple is the first occurrence of its value
+     */
+    private static boolean [] distinct (Comparable [][] tups)
+    {
+        var n    = tups.length;
+        var keep = new boolean [n];
+        var hash = new int [n];
+        IntStream.range (0, n).parallel ().forEach (i -> hash [i] = TupleSet.hash (tups [i]));
+
+        var bits  = (n < 100000) ? 0 : 31 - Integer.numberOfLeadingZeros (4 * ForkJoinPool.getCommonPoolParallelism ());
+        var parts = 1 << bits;
+        var start = new int [parts + 1];                           // counting sort the positions by partition
+        for (var i = 0; i < n; i++) start [part (hash [i], bits) + 1]++;
+        for (var p = 0; p < parts; p++) start [p + 1] += start [p];
+        var member = new int [n];
+        var next   = Arrays.copyOf (start, parts);
+        for (var i = 0; i < n; i++) member [next [part (hash [i], bits)]++] = i;
+
+        IntStream.range (0, parts).parallel ().forEach (p -> {
+            var set = new TupleSet (start [p + 1] - start [p]);
+            for (var m = start [p]; m < start [p + 1]; m++) {
+                var i = member [m];
+                keep [i] = set.add (tups [i], hash [i]);
+            } // for
+        });
+        return keep;
+    } // distinct
+
+    /************************************************************************************
+     * Return the partition for hash code h given by its top bits.
+     */
+    private static int part (int h, int bits)
+    {
+        return (bits == 0) ? 0 : (h * 0x9E3779B9) >>> (32 - bits);
+    } // part
+
+    /************************************************************************************
+     * Return the partition (0 until parts) of a join key, taken from the high bits of its
+     * spread hash code, so it is independent of the key's slot in a partition's HashMap.
+     *
+     * @param key    the join key
+     * @param parts  the number of partitions
+     * @return  the partition number
+     */
+    private static int partition (KeyType key, int parts)
+    {
+        return (int) (((key.hashCode () * 0x9E3779B9) & 0xFFFFFFFFL) * parts >>> 32);
+    } // partition
+
+    /************************************************************************************
+     * Return the attributes of this table followed by those of table2, appending "2" to
+     * any attribute of table2 that this table also has.
+     *
+     * @param table2  the rhs table in a join
+     * @return  the attributes of the joined table
+     */
+    private String [] joinAttributes (Table table2)
+    {
+        var attrs = concat (attribute, table2.attribute);
+        for (var j = 0; j < table2.attribute.length; j++) {
+            if (col (table2.attribute [j]) >= 0) attrs [attribute.length + j] = table2.attribute [j] + "2";
+        } // for
+        return attrs;
+    } // joinAttributes
+
+    /************************************************************************************
+     * Compare tuples a and b on the given columns (nulls first).
+     *
+     * @param a     the first tuple
+     * @param b     the second tuple
+     * @param cols  the columns to compare on
+     * @return  negative, zero or positive as a is less than, equal to or greater than b
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare (Comparable [] a, Comparable [] b, int [] cols)
+    {
+        for (var c : cols) {
+            var x = a [c];
+            var y = b [c];
+            var r = (x == null) ? ((y == null) ? 0 : -1) : (y == null) ? 1 : x.compareTo (y);
+            if (r != 0) return r;
+        } // for
+        return 0;
+    } // compare
+
+    /************************************************************************************
+     * Extract the values in the given columns from tuple t.
+     *
+     * @param t     the tuple to extract from
+     * @param cols  the column positions
+     * @return  a smaller tuple extracted from tuple t
+     */
+    private static Comparable [] extract (Comparable [] t, int [] cols)
+    {
+        var tup = new Comparable [cols.length];
+        for (var j = 0; j < cols.length; j++) tup [j] = t [cols [j]];
+        return tup;
+    } // extract
+
     /************************************************************************************
      * Extract the attributes specified by the column array from tuple t.
      *
@@ -871,16 +2441,10 @@ public class Table
      */
     private boolean typeCheck (Comparable [] t)
     {
-        for(int i = 0 ; i < this.domain.length; i++){
-            if(t[i] != null) {
-                String tuple_domain = t[i].getClass().getName();
-                String attribute_domain = this.domain[i].getName();
-
-                if (!tuple_domain.equals(attribute_domain)) {
-                    return false;
-                }
-            }
-        }
+        if (t.length < domain.length) return false;
+        for (var i = 0; i < domain.length; i++) {
+            if (t [i] != null && t [i].getClass () != domain [i]) return false;
+        } // for
         return true;
     } // typeCheck
 
@@ -0,0 +1,592 @@
+
+/************************************************************************************
+ * @file TableIO.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static java.lang.System.out;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/************************************************************************************
+ * The `TableIO` class imports tuples into a table from files and exports a table's
+ * tuples to files, either as CSV (or another delimiter, e.g., TSV) or in a compact
+ * binary row format.  A CSV file is split into chunks of about
+ * CHUNK bytes at line breaks and the chunks are parsed in parallel, each field being
+ * converted to the domain of its column; the rows are then appended in order with one
+ * insertAll, so the index is built once.  Fields may be quoted ("a, b" with "" for a
+ * quote), but may not contain line breaks.  An empty field is null, except in a String
+ * column.  Malformed rows (wrong number of fields, unparsable values or a null key) are
+ * skipped and counted.
+ *
+ * The binary format is the magic number MAGIC, the number of columns (a short), then the
+ * tuples as written by Spill.writeTuple (each value tagged with its type).
+ *
+ * Exports stream the tuples through a reused buffer to a file channel.  The writers
+ * are also sinks for operators that stream their results, e.g.,
+ *     try (var w = TableIO.csvWriter ("join.csv", ',', null)) { transcript.h_join ("studId", "id", student, w); }
+ *
+ * #usage TableIO.importCsv (student, "student.csv", ',', true)
+ * #usage TableIO.exportCsv (student, "student.tsv", '\t', true)
+ */
+public class TableIO
+{
+    /** The approximate number of bytes of CSV parsed per chunk (by one thread).
+     * PLEASE MODIFY THIS FOR TESTING PURPOSES
+     */
+    private static final int CHUNK = 1 << 22;
+
+    /** The magic number starting a binary table file ("DBMS").
+     */
+    static final int MAGIC = 0x44424D53;
+
+    private static final int BUFFER = 1 << 16;                     // bytes buffered for binary IO
+
+    /************************************************************************************
+     * Import the rows of the CSV file (comma separated, with a header line) into the
+     * table.
+     *
+     * @param table  the table to insert into
+     * @param file   the path of the CSV file
+     * @return  the number of tuples inserted
+     */
+    public static int importCsv (Table table, String file)
+    {
+        return importCsv (table, file, ',', true);
+    } // importCsv
+
+    /************************************************************************************
+     * Import the rows of the delimited text file into the table.  With a header line,
+     * the fields are matched to the table's attributes by name (in any order); without
+     * one, the fields are in the order of the attributes.
+     *
+     * @param table   the table to insert into
+     * @param file    the path of the file
+     * @param sep     the field separator, e.g., ',' or '\t'
+     * @param header  whether the first line names the fields
+     * @return  the number of tuples inserted
+     */
+    public static int importCsv (Table table, String file, char sep, boolean header)
+    {
+        out.println (STR."DML> import \{file} into \{table.getName ()}");
+        var call = Metrics.start ("import", 0);
+
+        var dom   = table.domains ();
+        var parse = parsers (dom);
+        try (var ch = FileChannel.open (Path.of (file), StandardOpenOption.READ)) {
+            var size   = ch.size ();
+            var starts = lineStarts (ch, size);
+            var first  = 0L;
+            var colOf  = new int [dom.length];                     // field k goes to column colOf [k]
+            for (var k = 0; k < colOf.length; k++) colOf [k] = k;
+
+            if (header) {                                          // match the field names to attributes
+                var line = firstLine (ch, size);
+                first    = line.length + 1;
+                var names = split (new String (line, UTF_8).strip (), sep);
+                if (names == null || names.size () != dom.length)
+                    throw new IllegalArgumentException (STR."importCsv: the header of \{file} does not match \{table.getName ()}");
+                for (var k = 0; k < colOf.length; k++) {
+                    colOf [k] = table.col (names.get (k));
+                    if (colOf [k] < 0) throw new IllegalArgumentException (STR."importCsv: unknown attribute \{names.get (k)}");
+                } // for
+            } // if
+
+            var from  = Math.min (first, size);
+            starts [0] = from;
+            for (var i = 1; i < starts.length; i++) starts [i] = Math.max (starts [i], from);
+
+            var parts = starts.length - 1;
+            @SuppressWarnings ("unchecked")
+            List <Comparable []> [] rows = new List [parts];
+            var bad   = new AtomicInteger ();
+            var keys  = table.keyPos ();
+            IntStream.range (0, parts).parallel ().forEach (p -> {
+                var bytes = read (ch, starts [p], starts [p + 1]);
+                rows [p]  = parseChunk (bytes, sep, colOf, keys, parse, bad);
+            });
+
+            var all = new ArrayList <Comparable []> ();
+            for (var r : rows) all.addAll (r);
+            if (bad.get () > 0) out.println (STR."importCsv: skipped \{bad.get ()} malformed rows");
+            return (int) call.end (table.insertAll (all));
+        } catch (IOException ex) {
+            call.end (0);
+            throw new UncheckedIOException (STR."importCsv: cannot read \{file}", ex);
+        } // try
+    } // importCsv
+
+    /************************************************************************************
+     * Import the tuples of the binary file (see the class description) into the table.
+     *
+     * @param table  the table to insert into
+     * @param file   the path of the binary file
+     * @return  the number of tuples inserted
+     */
+    public static int importBinary (Table table, String file)
+    {
+        out.println (STR."DML> import \{file} into \{table.getName ()}");
+        var call = Metrics.start ("import", 0);
+
+        var rows = new ArrayList <Comparable []> ();
+        try (var in = new DataInputStream (new BufferedInputStream (new FileInputStream (file), BUFFER))) {
+            if (in.readInt () != MAGIC) throw new IOException ("not a binary table file");
+            var arity = in.readShort ();
+            if (arity != table.domains ().length)
+                throw new IllegalArgumentException (STR."importBinary: \{file} has \{arity} columns, \{table.getName ()} has \{table.domains ().length}");
+            while (hasMore (in)) rows.add (Spill.readTuple (in));
+        } catch (IOException ex) {
+            call.end (0);
+            throw new UncheckedIOException (STR."importBinary: cannot read \{file}", ex);
+        } // try
+        return (int) call.end (table.insertAll (rows));
+    } // importBinary
+
+    /************************************************************************************
+     * Export the tuples of the table to a CSV file (comma separated, with a header line).
+     *
+     * @param table  the table to export
+     * @param file   the path of the CSV file
+     * @return  the number of tuples written
+     */
+    public static long exportCsv (Table table, String file)
+    {
+        return exportCsv (table, file, ',', true);
+    } // exportCsv
+
+    /************************************************************************************
+     * Export the tuples of the table to a delimited text file, e.g., TSV for sep '\t'.
+     *
+     * @param table   the table to export
+     * @param file    the path of the file
+     * @param sep     the field separator
+     * @param header  whether to write a first line naming the fields
+     * @return  the number of tuples written
+     */
+    public static long exportCsv (Table table, String file, char sep, boolean header)
+    {
+        out.println (STR."DML> export \{table.getName ()} to \{file}");
+        var call = Metrics.start ("export", table.rows ());
+        try (var w = csvWriter (file, sep, header ? table.attributes () : null)) {
+            for (int i = 0, n = table.rows (); i < n; i++) w.accept (table.get (i));
+            return call.end (w.rows ());
+        } // try
+    } // exportCsv
+
+    /************************************************************************************
+     * Export the tuples of the table to a binary file (see the class description).
+     *
+     * @param table  the table to export
+     * @param file   the path of the binary file
+     * @return  the number of tuples written
+     */
+    public static long exportBinary (Table table, String file)
+    {
+        out.println (STR."DML> export \{table.getName ()} to \{file}");
+        var call = Metrics.start ("export", table.rows ());
+        try (var w = binaryWriter (file, table.domains ().length)) {
+            for (int i = 0, n = table.rows (); i < n; i++) w.accept (table.get (i));
+            return call.end (w.rows ());
+        } // try
+    } // exportBinary
+
+    /************************************************************************************
+     * Open a writer of tuples to a delimited text file.
+     *
+     * @param file    the path of the file (replaced if it exists)
+     * @param sep     the field separator
+     * @param header  the names for a header line (null for none)
+     * @return  the writer, to be closed when done
+     */
+    public static Writer csvWriter (String file, char sep, String [] header)
+    {
+        var w = new CsvWriter (file, sep);
+        if (header != null) w.accept (header);
+        w.rows = 0;
+        return w;
+    } // csvWriter
+
+    /************************************************************************************
+     * Open a writer of tuples to a binary file.
+     *
+     * @param file   the path of the file (replaced if it exists)
+     * @param arity  the number of columns
+     * @return  the writer, to be closed when done
+     */
+    public static Writer binaryWriter (String file, int arity)
+    {
+        return new BinaryWriter (file, arity);
+    } // binaryWriter
+
+    //----------------------------------------------------------------------------------
+    // Writers
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * The `Writer` class is a sink for tuples that writes them to a file.  IO errors are
+     * thrown as UncheckedIOExceptions.
+     */
+    public static abstract class Writer
+           implements Consumer <Comparable []>, Closeable
+    {
+        protected final FileChannel ch;                             // the file written
+        protected long rows = 0;                                    // number of tuples written
+
+        Writer (String file)
+        {
+            try {
+                ch = FileChannel.open (Path.of (file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException ex) {
+                throw new UncheckedIOException (STR."TableIO: cannot create \{file}", ex);
+            } // try
+        } // constructor
+
+        /********************************************************************************
+         * Return the number of tuples written.
+         */
+        public long rows () { return rows; }
+
+        /********************************************************************************
+         * Write out what is buffered and close the file.
+         */
+        public abstract void close ();
+
+    } // Writer
+
+    /************************************************************************************
+     * The `CsvWriter` class formats tuples as delimited lines into a reused buffer and
+     * encodes it (UTF-8) into a reused byte buffer written to the channel every FLUSH
+     * characters.  Values holding the separator, a quote or a line break are quoted.
+     */
+    private static class CsvWriter
+            extends Writer
+    {
+        private static final int FLUSH = 1 << 16;                   // characters buffered
+
+        private final char sep;
+        private final StringBuilder   sb  = new StringBuilder (FLUSH + 1024);
+        private final ByteBuffer      buf = ByteBuffer.allocateDirect (4 * FLUSH);
+        private final CharsetEncoder  enc = UTF_8.newEncoder ();
+
+        CsvWriter (String file, char _sep)
+        {
+            super (file);
+            sep = _sep;
+        } // constructor
+
+        public void accept (Comparable [] t) { accept ((Object []) t); }
+
+        /********************************************************************************
+         * Format the values as a line.
+         */
+        void accept (Object [] t)
+        {
+            for (var j = 0; j < t.length; j++) {
+                if (j > 0) sb.append (sep);
+                if (t [j] != null) field (t [j].toString ());
+            } // for
+            sb.append ('\n');
+            rows++;
+            if (sb.length () >= FLUSH) flush ();
+        } // accept
+
+        /********************************************************************************
+         * Append a field, quoting it if needed.
+         */
+        private void field (String s)
+        {
+            var quote = false;
+            for (var i = 0; i < s.length () && ! quote; i++) {
+                var c = s.charAt (i);
+                quote = c == sep || c == '"' || c == '\n' || c == '\r';
+            } // for
+            if (! quote) { sb.append (s); return; }
+            sb.append ('"');
+            for (var i = 0; i < s.length (); i++) {
+                var c = s.charAt (i);
+                if (c == '"') sb.append ('"');
+                sb.append (c);
+            } // for
+            sb.append ('"');
+        } // field
+
+        /********************************************************************************
+         * Encode the buffered lines and write them to the channel.
+         */
+        private void flush ()
+        {
+            try {
+                var cb = CharBuffer.wrap (sb);
+                enc.reset ();
+                for (var done = false; ! done; ) {
+                    done = enc.encode (cb, buf, true).isUnderflow ();
+                    if (done) enc.flush (buf);
+                    buf.flip ();
+                    while (buf.hasRemaining ()) ch.write (buf);
+                    buf.clear ();
+                } // for
+                sb.setLength (0);
+            } catch (IOException ex) {
+                throw new UncheckedIOException ("TableIO: cannot write", ex);
+            } // try
+        } // flush
+
+        public void close ()
+        {
+            try (ch) {
+                flush ();
+            } catch (IOException ex) {
+                throw new UncheckedIOException ("TableIO: cannot close", ex);
+            } // try
+        } // close
+
+    } // CsvWriter
+
+    /************************************************************************************
+     * The `BinaryWriter` class writes tuples in the binary format through a buffered
+     * stream on the channel.
+     */
+    private static class BinaryWriter
+            extends Writer
+    {
+        private final DataOutputStream dout;
+
+        BinaryWriter (String file, int arity)
+        {
+            super (file);
+            dout = new DataOutputStream (new BufferedOutputStream (Channels.newOutputStream (ch), BUFFER));
+            try {
+                dout.writeInt (MAGIC);
+                dout.writeShort (arity);
+            } catch (IOException ex) {
+                throw new UncheckedIOException ("TableIO: cannot write", ex);
+            } // try
+        } // constructor
+
+        public void accept (Comparable [] t)
+        {
+            try {
+                Spill.writeTuple (dout, t);
+                rows++;
+            } catch (IOException ex) {
+                throw new UncheckedIOException ("TableIO: cannot write", ex);
+            } // try
+        } // accept
+
+        public void close ()
+        {
+            try {
+                dout.close ();                                      // closes the channel
+            } catch (IOException ex) {
+                throw new UncheckedIOException ("TableIO: cannot close", ex);
+            } // try
+        } // close
+
+    } // BinaryWriter
+
+    //----------------------------------------------------------------------------------
+    // Private methods
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Return whether the (buffered) input has another byte.
+     */
+    private static boolean hasMore (DataInputStream in) throws IOException
+    {
+        in.mark (1);
+        var b = in.read ();
+        in.reset ();
+        return b >= 0;
+    } // hasMore
+
+    /************************************************************************************
+     * Return the positions splitting the file into chunks of about CHUNK bytes, each
+     * starting at the beginning of a line (the first is 0 and the last is the size).
+     *
+     * @param ch    the file's channel
+     * @param size  the file's size
+     */
+    private static long [] lineStarts (FileChannel ch, long size) throws IOException
+    {
+        var starts = new ArrayList <Long> ();
+        starts.add (0L);
+        var buf = ByteBuffer.allocate (4096);
+        for (var pos = (long) CHUNK; pos < size; pos += CHUNK) {
+            var p = Math.max (pos, starts.get (starts.size () - 1));
+            var found = -1L;
+            while (found < 0 && p < size) {                        // find the next line break
+                buf.clear ();
+                var n = ch.read (buf, p);
+                if (n <= 0) break;
+                for (var i = 0; i < n && found < 0; i++) if (buf.get (i) == '\n') found = p + i + 1;
+                p += n;
+            } // while
+            if (found < 0 || found >= size) break;
+            starts.add (found);
+        } // for
+        starts.add (size);
+        return starts.stream ().mapToLong (Long::longValue).toArray ();
+    } // lineStarts
+
+    /************************************************************************************
+     * Return the bytes of the first line (without the line break).
+     */
+    private static byte [] firstLine (FileChannel ch, long size) throws IOException
+    {
+        var line = new ByteArrayOutputStream ();
+        var buf  = ByteBuffer.allocate (4096);
+        for (var p = 0L; p < size; ) {
+            buf.clear ();
+            var n = ch.read (buf, p);
+            if (n <= 0) break;
+            for (var i = 0; i < n; i++) {
+                if (buf.get (i) == '\n') return line.toByteArray ();
+                line.write (buf.get (i));
+            } // for
+            p += n;
+        } // for
+        return line.toByteArray ();
+    } // firstLine
+
+    /************************************************************************************
+     * Read the bytes of the file from position from until to.
+     */
+    private static byte [] read (FileChannel ch, long from, long to)
+    {
+        var bytes = new byte [(int) (to - from)];
+        var buf   = ByteBuffer.wrap (bytes);
+        try {
+            while (buf.hasRemaining ()) {
+                if (ch.read (buf, from + buf.position ()) < 0) break;
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("importCsv: cannot read a chunk", ex);
+        } // try
+        return bytes;
+    } // read
+
+    /************************************************************************************
+     * Parse the lines of a chunk into tuples, counting the malformed ones in bad.
+     *
+     * @param bytes  the chunk (whole lines)
+     * @param sep    the field separator
+     * @param colOf  the column of each field
+     * @param keys   the columns of the primary key (which may not be null)
+     * @param parse  the parser for each column
+     * @param bad    the count of malformed rows
+     * @return  the tuples, in order
+     */
+    private static List <Comparable []> parseChunk (byte [] bytes, char sep, int [] colOf, int [] keys,
+                                                    Function <String, Comparable> [] parse, AtomicInteger bad)
+    {
+        var text = new String (bytes, UTF_8);
+        var rows = new ArrayList <Comparable []> (text.length () / 32 + 1);
+        for (int i = 0, n = text.length (); i < n; ) {
+            var nl  = text.indexOf ('\n', i);
+            var end = (nl < 0) ? n : nl;
+            var last = (end > i && text.charAt (end - 1) == '\r') ? end - 1 : end;
+            if (last > i) {
+                var fields = split (text.substring (i, last), sep);
+                if (fields == null || fields.size () != colOf.length) bad.incrementAndGet ();
+                else {
+                    var t = new Comparable [colOf.length];
+                    try {
+                        for (var k = 0; k < colOf.length; k++) {
+                            var f = fields.get (k);
+                            var j = colOf [k];
+                            t [j] = (f.isEmpty () && parse [j] != STRING) ? null : parse [j].apply (f);
+                        } // for
+                        var keyed = true;                          // the index cannot hold null keys
+                        for (var k : keys) keyed &= t [k] != null;
+                        if (keyed) rows.add (t);
+                        else bad.incrementAndGet ();
+                    } catch (RuntimeException ex) {                // e.g., NumberFormatException
+                        bad.incrementAndGet ();
+                    } // try
+                } // if
+            } // if
+            i = end + 1;
+        } // for
+        return rows;
+    } // parseChunk
+
+    /************************************************************************************
+     * Split a line into its fields, removing the quotes around quoted fields (null if a
+     * quote is not closed).
+     *
+     * @param line  the line
+     * @param sep   the field separator
+     */
+    private static List <String> split (String line, char sep)
+    {
+        var fields = new ArrayList <String> ();
+        if (line.indexOf ('"') < 0) {                              // fast path: no quotes
+            for (int i = 0, j; ; i = j + 1) {
+                j = line.indexOf (sep, i);
+                if (j < 0) { fields.add (line.substring (i)); return fields; }
+                fields.add (line.substring (i, j));
+            } // for
+        } // if
+
+        var sb = new StringBuilder ();
+        var quoted = false;
+        for (var i = 0; i < line.length (); i++) {
+            var c = line.charAt (i);
+            if (quoted) {
+                if (c != '"') sb.append (c);
+                else if (i + 1 < line.length () && line.charAt (i + 1) == '"') { sb.append ('"'); i++; }
+                else quoted = false;
+            } else if (c == '"') quoted = true;
+            else if (c == sep) { fields.add (sb.toString ()); sb.setLength (0); }
+            else sb.append (c);
+        } // for
+        if (quoted) return null;
+        fields.add (sb.toString ());
+        return fields;
+    } // split
+
+    /** The parser for String columns (the field as is).
+     */
+    private static final Function <String, Comparable> STRING = s -> s;
+
+    /************************************************************************************
+     * Return a parser converting a field to the domain of each column.
+     *
+     * @param dom  the domains of the columns
+     */
+    @SuppressWarnings ("unchecked")
+    private static Function <String, Comparable> [] parsers (Class [] dom)
+    {
+        var parse = new Function [dom.length];
+        for (var j = 0; j < dom.length; j++) {
+            parse [j] = switch (dom [j].getSimpleName ()) {
+                case "Byte"      -> (Function <String, Comparable>) Byte::valueOf;
+                case "Character" -> (Function <String, Comparable>) s -> s.charAt (0);
+                case "Double"    -> (Function <String, Comparable>) Double::valueOf;
+                case "Float"     -> (Function <String, Comparable>) Float::valueOf;
+                case "Integer"   -> (Function <String, Comparable>) Integer::valueOf;
+                case "Long"      -> (Function <String, Comparable>) Long::valueOf;
+                case "Short"     -> (Function <String, Comparable>) Short::valueOf;
+                case "Boolean"   -> (Function <String, Comparable>) Boolean::valueOf;
+                default          -> STRING;
+            }; // switch
+        } // for
+        return parse;
+    } // parsers
+
+} // TableIO
+
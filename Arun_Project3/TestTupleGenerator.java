@@ -20,6 +20,11 @@ public class TestTupleGenerator
     // initializing the number of tuples to be inserted into the table
     // PLEASE MODIFY THIS FOR TESTING PURPOSES
     private static int numTuples = 10000;
+
+    // whether to generate skewed data: Zipfian transcript fan-out per student and
+    // low-cardinality student status (otherwise all values are uniform random)
+    // PLEASE MODIFY THIS FOR TESTING PURPOSES
+    private static boolean skewed = false;
     
     /********************************************************************************
      * Run the first test for this table related to select search. This involves not having found a tuple in table.
@@ -30,7 +35,7 @@ public class TestTupleGenerator
      * @author Sanjana Arun - NO_MAP or not logic
      *
      * @param testTable the test table to be used for this method
-     * @param size the size of the table therefore the ref -1
+     * @param size the size of the table
      * @return a long representing the time it took to run select, in nanotime
      */
     public static long testOne(Table testTable, int size)
@@ -41,7 +46,7 @@ public class TestTupleGenerator
         tupC[1] = (String)("name" + rand.nextInt(1000000));
         tupC[2] = (String)("address" + rand.nextInt(1000000));
         tupC[3] = (String)("status" + rand.nextInt(1000000));
-        int ref = (int)tupC[0] % size + 1;
+        int ref = (int)tupC[0];
         out.println("<<<<< TEST ONE >>>>>");
 
         // Depending on whether or not NO_MAP is used, it runs a different select operation
@@ -78,7 +83,7 @@ public class TestTupleGenerator
      *
      * @param testTable the Student table to be used for this method
      * @param dIndex the dIndex that is being used
-     * @param size the size of the table therefore the ref -1
+     * @param size the size of the table
      * @return a long representing the time it took to run the select
      */
     public static long testTwo(Table testTable, DIndex dIndex, int size)
@@ -89,7 +94,7 @@ public class TestTupleGenerator
         tupC[1] = (String)("name" + rand.nextInt(1000000));
         tupC[2] = (String)("address" + rand.nextInt(1000000));
         tupC[3] = (String)("status" + rand.nextInt(1000000));
-        int ref = (int)tupC[0] % (size + 1);
+        int ref = (int)tupC[0];
         dIndex.put (ref, testTable.insert (tupC));
         KeyType searching = new KeyType(tupC[0]);
         out.println("<<<<< TEST TWO >>>>>");
@@ -173,7 +178,7 @@ public class TestTupleGenerator
         var resultTest = test.generate (tups);
         for (var i = 0; i < resultTest.length; i++) {
             for (var j = 0; j < resultTest [i].length; j++) {
-                int ref = (int)resultTest[i][j][0] % (resultTest[i].length + 1);
+                int ref = (int)resultTest[i][j][0];
                studentDIndex.put (ref, studentTable.insert(resultTest[i][j]));
             } // for
          //   studentTable.print();
@@ -210,7 +215,8 @@ public class TestTupleGenerator
                            "id name address status",
                            "Integer String String String",
                            "id",
-                           null);
+                           null,
+                           skewed ? "- - - uniform(4)" : "- - - -");
 
         var studentTable = new Table ("Student",
                 "id name address status",
@@ -257,7 +263,8 @@ public class TestTupleGenerator
                            "studId crsCode semester",
                 new String [][] {{ "studId", "Student", "id"},
                         { "crsCode", "Course", "crsCode" },
-                        { "crsCode semester", "Teaching", "crsCode semester" }});
+                        { "crsCode semester", "Teaching", "crsCode semester" }},
+                skewed ? "zipf(1.2) - - -" : "- - - -");
 
         var transcriptTable = new Table ("Transcript",
                 "studId crsCode semester grade",
@@ -282,7 +289,7 @@ public class TestTupleGenerator
         for (var i = 0; i < resultTest.length; i++) {
             out.println (tables [i]);
             for (var j = 0; j < resultTest [i].length; j++) {
-                int ref = (int)resultTest[i][j][0] % (resultTest[i].length + 1);
+                int ref = (int)resultTest[i][j][0];
                 // inserting generated tuples from resultTest into the table object
                 dIndexObjs[i].put (ref, tableObjs[i].insert (resultTest[i][j]));
                 out.println ();
@@ -295,6 +302,7 @@ public class TestTupleGenerator
         for (int i = 0; i < 6; i++) {
             if (i >0) {
                 out.println("Test trail " + i);
+                Table.cache ().clear ();                       // time the operators, not the result cache
                 testAverage[0] += testOne(tableObjs[0], tups[0]);
                 testAverage[1] += testTwo(tableObjs[0], dIndexObjs[0], tups[0]);
                 testAverage[2] += testThree(tableObjs[0], tableObjs[4]);
@@ -5,11 +5,17 @@
  * @author   Sadiq Charaniya, John Miller
  */
 
+import java.util.Arrays;
+
 /*****************************************************************************************
  * This interface can be used for generating tuples to populate a database.
  */
 public interface TupleGenerator
 {
+    /** Default number of tuples per batch when streaming into tables
+     */
+    int BATCH_SIZE = 4096;
+
     /*************************************************************************************
      * Add the relational schema for a given table.  Do this for all tables and then
      * generate the tuples.
@@ -36,6 +42,34 @@ public interface TupleGenerator
     void addRelSchema (String name, String attribute, String domain,
                        String primaryKey, String [][] foreignKey); 
 
+    /*************************************************************************************
+     * Add the relational schema for a given table, specifying how the values of each
+     * attribute are distributed (null entries use the default uniform random values).
+     * For a foreign key attribute, the distribution chooses the referenced rows.
+     * @param name        the table's name
+     * @param attribute   the array holding the table's attributes
+     * @param domain      the array holding the table's domains
+     * @param primaryKey  the array of primary keys
+     * @param foreignKey  the array of foreign keys
+     * @param dist        the array holding each attribute's distribution
+     */
+    void addRelSchema (String name, String [] attribute, String [] domain,
+                       String [] primaryKey, String [][] foreignKey, Distribution [] dist);
+
+    /*************************************************************************************
+     * Add the relational schema for a given table with attribute distributions.  This is
+     * convenience method.
+     * @param name        the table's name
+     * @param attribute   the string embedding the table's attributes
+     * @param domain      the string embedding the table's domains
+     * @param primaryKey  the string embedding the table's primary keys
+     * @param foreignKey  the array of foreign keys
+     * @param dist        the string embedding the distributions, e.g., "- zipf(1.2) uniform(4)"
+     *                    (see Distribution.parse, "-" for the default)
+     */
+    void addRelSchema (String name, String attribute, String domain,
+                       String primaryKey, String [][] foreignKey, String dist);
+
     /*************************************************************************************
      * Generate tuples for all of the tables.
      * @param   nTuples  the int array that contains the number of tuple for each table
@@ -44,5 +78,46 @@ public interface TupleGenerator
      */
     Comparable [][][] generate (int [] nTuples);
 
+    /*************************************************************************************
+     * Generate tuples for all of the tables, streaming them to the sink in batches rather
+     * than materializing every table.  Batches for the same table are delivered in order
+     * by a single thread, while batches for different tables may be delivered concurrently.
+     * @param nTuples    the int array that contains the number of tuple for each table
+     * @param batchSize  the maximum number of tuples per batch
+     * @param sink       the receiver of the batches
+     */
+    void generate (int [] nTuples, int batchSize, Sink sink);
+
+    /*************************************************************************************
+     * Generate tuples for all of the tables, streaming them directly into the given tables
+     * (tables [i] receives the tuples for the i-th relational schema added).  The batches
+     * are appended as they arrive and each table is indexed once, at the end.
+     * @param nTuples  the int array that contains the number of tuple for each table
+     * @param tables   the tables to populate
+     */
+    default void generate (int [] nTuples, Table [] tables)
+    {
+        try {
+            generate (nTuples, BATCH_SIZE, (i, batch) -> tables [i].append (Arrays.asList (batch)));
+        } finally {
+            for (var t : tables) t.endLoad ();                     // index what was appended
+        } // try
+    } // generate
+
+    /*************************************************************************************
+     * The Sink interface receives the batches of tuples produced by a streaming generate.
+     */
+    @FunctionalInterface
+    interface Sink
+    {
+        /*********************************************************************************
+         * Accept a batch of generated tuples (the sink may keep the batch).
+         * @param table  the table number (order in which its schema was added)
+         * @param batch  the batch of tuples
+         */
+        void accept (int table, Comparable [][] batch);
+
+    } // Sink
+
 } // TupleGenerator
 
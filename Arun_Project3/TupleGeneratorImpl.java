@@ -7,23 +7,37 @@
 
 import static java.lang.System.out;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /*****************************************************************************************
  * This class is used to populate a database (collection of tables) with randomly
  * generated values that satisfy the following integrity constraints: domain, primary
  * keys and foreign key constraints.
+ *
+ * Every cell is a pure function of (seed, table, row, column): its random values come from
+ * a SplittableRandom seeded by mixing those coordinates, and primary key values come from
+ * a permutation of the row number, so keys are unique without any collision checks.  As a
+ * result rows may be generated in any order and in parallel, and a foreign key value is
+ * obtained by regenerating the referenced cell rather than by keeping the referenced
+ * table in memory (so relations are independent of each other).
  */
 public class TupleGeneratorImpl
        implements TupleGenerator
 {
+    /** Mask for the 31-bit key space of the primary key permutation
+     */
+    private static final long MASK = (1L << 31) - 1;
+
     /** Counter for table numbers
      */
     private int counter = 0;
 
-    /** Initializations 
+    /** Seed from which all the generated values are derived
      */
-    private HashMap <String, Comparable [][]> result = new HashMap <> ();
+    private final long seed;
 
+    /** Initializations
+     */
     private HashMap <Integer, String> tableIndex = new HashMap <> ();
 
     private HashMap <String, String []> tableAttr = new HashMap <> ();
@@ -33,7 +47,45 @@ public class TupleGeneratorImpl
     private HashMap <String, String []> tablepks = new HashMap <> ();
 
     HashMap <String, String [][]> tablefks = new HashMap <> ();
-    
+
+    private HashMap <String, Distribution []> tableDist = new HashMap <> ();
+
+    /*******************************************************************************************
+     * The generation plan for one table: its schema with the key and foreign key columns
+     * resolved to positions.
+     * @param attribute  the array of attributes
+     * @param domain     the array of domains
+     * @param isPk       whether each column is part of the primary key
+     * @param fkOf       the foreign key (number) supplying each column, or -1 if none
+     * @param fkTable    the referenced table number for each foreign key
+     * @param refCol     the referenced column for each column supplied by a foreign key
+     * @param dist       the distribution for each column (null for uniform random)
+     * @param fkDist     the distribution choosing the referenced rows for each foreign key
+     * @param n          the number of tuples to generate
+     * @param salt       the table's salt mixed into the seeds of its cells
+     */
+    private record Plan (String [] attribute, String [] domain, boolean [] isPk, int [] fkOf,
+                         int [] fkTable, int [] refCol, Distribution [] dist, Distribution [] fkDist,
+                         long n, long salt) {}
+
+    /*******************************************************************************************
+     * Construct a tuple generator using a random seed.
+     */
+    public TupleGeneratorImpl ()
+    {
+        this (new Random ().nextLong ());
+    } // constructor
+
+    /*******************************************************************************************
+     * Construct a tuple generator using the given seed (the same seed and schema always
+     * produce the same tuples).
+     * @param _seed  the seed for the random values
+     */
+    public TupleGeneratorImpl (long _seed)
+    {
+        seed = _seed;
+    } // constructor
+
     /*******************************************************************************************
      * Adding relation to Schema.
      * @param name        the name of the table
@@ -45,220 +97,331 @@ public class TupleGeneratorImpl
     public void addRelSchema (String name, String [] attribute, String [] domain,
                               String [] primaryKey, String [][] foreignKey)
     {
+        addRelSchema (name, attribute, domain, primaryKey, foreignKey, (Distribution []) null);
+    } // addRelSchema
+
+    /*******************************************************************************************
+     * Adding relation to Schema.  Convenience method.
+     * @param name        the name of the table
+     * @param attribute   the string embedding the table's attributes
+     * @param domain      the string embedding the table's domains
+     * @param primaryKey  the string embedding the table's primary keys
+     * @param foreignKey  the array of foriegn keys
+     */
+    public void addRelSchema (String name, String attribute, String domain,
+                              String primaryKey, String [][] foreignKey)
+    {
+        addRelSchema (name, attribute.split (" "), domain.split (" "),
+                      primaryKey.split (" "), foreignKey);
+    } // addRelSchema
+
+    /*******************************************************************************************
+     * Adding relation to Schema with the distribution of each attribute's values.
+     * @param name        the name of the table
+     * @param attribute   the array of attributes
+     * @param domain      the array of domains
+     * @param primaryKey  the array of primary keys
+     * @param foreignKey  the array of foriegn keys
+     * @param dist        the array of distributions (null entries for uniform random)
+     */
+    public void addRelSchema (String name, String [] attribute, String [] domain,
+                              String [] primaryKey, String [][] foreignKey, Distribution [] dist)
+    {
+        if (dist != null) {
+            if (dist.length != attribute.length) {
+                throw new IllegalArgumentException ("addRelSchema: need one distribution per attribute for " + name);
+            } // if
+            var pks     = Arrays.asList (primaryKey);
+            var fkAttrs = new HashSet <String> ();                 // foreign keys choose referenced rows instead
+            if (foreignKey != null) for (var fk : foreignKey) fkAttrs.addAll (Arrays.asList (fk [0].split (" ")));
+            var skewed  = false;                                   // a key column lost its uniqueness
+            var unique  = false;                                   // some key column is still unique
+            for (var k = 0; k < dist.length; k++) {
+                if (pks.contains (attribute [k]) && ! fkAttrs.contains (attribute [k])) {
+                    if (dist [k] == null || dist [k].unique ()) unique = true;
+                    else skewed = true;
+                } // if
+            } // for
+            if (skewed && ! unique) {
+                throw new IllegalArgumentException ("addRelSchema: primary key of " + name + " needs a column with a unique distribution");
+            } // if
+        } // if
+
         tableIndex.put (counter, name);
         tableAttr.put (name, attribute);
         tableDomain.put (name, domain);
         tablepks.put (name, primaryKey);
         tablefks.put (name, foreignKey);
+        tableDist.put (name, (dist == null) ? new Distribution [attribute.length] : dist.clone ());
         counter++;
     } // addRelSchema
-    
+
     /*******************************************************************************************
-     * Adding relation to Schema.  Convenience method.
+     * Adding relation to Schema with the distribution of each attribute's values.
+     * Convenience method.
      * @param name        the name of the table
      * @param attribute   the string embedding the table's attributes
      * @param domain      the string embedding the table's domains
      * @param primaryKey  the string embedding the table's primary keys
      * @param foreignKey  the array of foriegn keys
+     * @param dist        the string embedding the distributions ("-" for uniform random)
      */
     public void addRelSchema (String name, String attribute, String domain,
-                              String primaryKey, String [][] foreignKey)
+                              String primaryKey, String [][] foreignKey, String dist)
     {
+        var spec = dist.split (" ");
+        var dists = new Distribution [spec.length];
+        for (var k = 0; k < spec.length; k++) dists [k] = Distribution.parse (spec [k]);
         addRelSchema (name, attribute.split (" "), domain.split (" "),
-                      primaryKey.split (" "), foreignKey);
+                      primaryKey.split (" "), foreignKey, dists);
     } // addRelSchema
 
     /***********************************************************************************
-     * Generates random tuples that satisfy all the integrity constraints.
+     * Generates random tuples that satisfy all the integrity constraints.  The rows of
+     * each table are generated in parallel.
      * @param tuples  the number of tuples for each table
      * @return  tempResult contains tuples for all the tables in the order they were added
      */
     public Comparable [][][] generate (int [] tuples)
     {
-        var rand       = new Random ();
-        var tableName  = "";
-        var pKeys      = new HashSet <String> ();
-        var pKeyValues = new HashSet <Comparable <?>> ();
-        var fKeys      = new HashSet <String> ();
-        var fkIndex    = new ArrayList <String> ();
-
-        String []   attribute;
-        String []   domain;
-        String []   pks;
-        String [][] fks;
-        int         iVal;
-        String      sVal;
-        double      dVal;
+        var plan       = plan (tuples);
+        var tempResult = new Comparable [tuples.length][][];
 
         for (var i = 0; i < tuples.length; i++) {
-            tableName = tableIndex.get (i);
-            attribute = tableAttr.get (tableName);
-            domain    = tableDomain.get (tableName);
-            pks       = tablepks.get (tableName);
-            fks       = tablefks.get (tableName);
-            var subResult = new Comparable [tuples [i]][attribute.length];
-
-            // out.println (tableName);
-            for (var n = 0; n < pks.length; n++) pKeys.add (pks [n]);
-
-            //----------------------------------------------------
-            // Handle the case where the table has no foreign keys
-
-            if (fks == null) {
-                for (var j = 0; j < tuples[i]; j++) {
-                    for (var k = 0; k < attribute.length; k++) {
-                        if (pKeys.contains (attribute[k])) {  // key requires uniqueness
-
-                            switch (domain[k]) {
-                            case "Integer":
-                                for (iVal = rand.nextInt (1000000); pKeyValues.contains (iVal);
-                                     iVal = rand.nextInt (1000000));
-                                subResult[j][k] = iVal;
-                                pKeyValues.add (iVal);
-                                break;
-                            case "String":
-                                for (sVal = attribute[k] + rand.nextInt (1000000); pKeyValues.contains(sVal);
-                                     sVal = attribute[k] + rand.nextInt (1000000));
-                                subResult[j][k] = sVal;
-                                pKeyValues.add (sVal);
-                                break;
-                            case "Double":
-                                for (dVal = rand.nextInt (1000000) * rand.nextDouble (); pKeyValues.contains( dVal);
-                                     dVal = rand.nextInt (1000000) * rand.nextDouble ());
-                                subResult[j][k] = dVal;
-                                pKeyValues.add (dVal);
-                                break;
-                            default:
-                                throw new IllegalArgumentException("Invalid type in switch: " + domain[k]);
-                            } // switch
-
-                        } else {  // non-key does not require uniqueness
-
-                            switch (domain[k]) {
-                            case "Integer":
-                                subResult[j][k] = rand.nextInt(1000000); break;
-                            case "String":
-                                subResult[j][k] = attribute [k] + rand.nextInt (1000000); break;
-                            case "Double":
-                                subResult[j][k] = rand.nextInt (100000) * rand.nextDouble (); break;
-                            default:
-                                throw new IllegalArgumentException("Invalid type in switch: " + domain[k]);
-                            } // switch
-
-                        } // if
-                    } // for
-                } // for
+            var table    = i;
+            var subTable = tempResult [i] = new Comparable [tuples [i]][];
+            IntStream.range (0, tuples [i]).parallel ()
+                     .forEach (j -> subTable [j] = row (plan, table, j));
+        } // for
 
-            //-------------------------------------------------
-            // Handle the case where the table has foreign keys (maintain referential integrity)
-
-            } else {
-                for (var j = 0; j < tuples[i]; j++) {
-                    for (var n = 0; n < fks.length; n++) {
-
-                        if ( ! fks[n][0].contains (" ")) {
-                            fkIndex.add (n, fks[n][0]);
-                            var fkTable = result.get (fks[n][1]);
-                            int s;
-                            for (s = 0; s < attribute.length; s++) {
-                                if (attribute[s].equals (fks[n][0])) break;
-                            } // for
-                            String[] tempAtr = tableAttr.get(fks[n][1]);
-                            int x;
-                            for (x = 0; x < tempAtr.length; x++) {
-                                if (tempAtr[x].equals (fks[n][2])) break;
-                            } // for
-                            subResult[j][s] = fkTable[rand.nextInt (fkTable.length)][x];
-
-                        } else {
-                            String [] sfks = fks[n][0].split (" ");
-                            String [] rfks = fks[n][2].split (" ");
-                            for (var z = 0; z < fks[n][0].split (" ").length; z++) {
-                                fkIndex.add (n+z, fks[n][0].split (" ")[z]);
-                            } // for
-                            Comparable [][] fkTable = result.get (fks[n][1]);
-                            if (fkTable == null) {
-                                out.println ("Foreign Key Error: table containing referencing key cannot be populated before referenced table");
-                                out.println ("Possible Solution: Add '" + fks[n][1] + "' table before adding '" + tableName + "' table.");
-                                System.exit (0);
-                            } // if
-                            int t = rand.nextInt (fkTable.length);
-                            for (var a = 0; a < sfks.length; a++) {
-                                int b;
-                                for (b = 0; b < attribute.length; b++) {
-                                    if (attribute[b].equals (sfks[a])) break;
-                                } // for
-                                String [] tempAtr = tableAttr.get (fks[n][1]);
-                                int c;
-                                for (c = 0; c < tempAtr.length; c++) {
-                                    if (tempAtr[c].equals (rfks[a])) break;
-                                } // for
-                                subResult[j][b] = fkTable[t][c];
-                            } // for
-                        } // if
-                    } // for
-
-                    for (var k = 0; k < attribute.length; k++) {
-                        if ( ! fkIndex.contains (attribute[k])) {
-                            if (pKeys.contains (attribute[k])) {
-
-                                switch (domain[k]) {
-                                case "Integer":
-                                    for (iVal = rand.nextInt (1000000); pKeyValues.contains (iVal);
-                                         iVal = rand.nextInt (1000000));
-                                    subResult[j][k] = iVal;
-                                    pKeyValues.add (iVal);
-                                    break;
-                                case "String":
-                                    for (sVal = attribute[k] + rand.nextInt (1000000); pKeyValues.contains (sVal);
-                                         sVal = attribute[k] + rand.nextInt (1000000));
-                                    subResult[j][k] = sVal;
-                                    pKeyValues.add (sVal);
-                                    break;
-                                case "Double":
-                                    for (dVal = rand.nextInt (1000000) * rand.nextDouble (); pKeyValues.contains (dVal);
-                                         dVal = rand.nextInt (1000000) * rand.nextDouble ());
-                                    subResult[j][k] = dVal;
-                                    pKeyValues.add (dVal);
-                                    break;
-                                default:
-                                    throw new IllegalArgumentException("Invalid type in switch: " + domain[k]);
-                                } // if
-
-                            } else {
-
-                                switch (domain[k]) {
-                                case "Integer":
-                                    subResult[j][k] = rand.nextInt (1000000); break;
-                                case "String":
-                                    subResult[j][k] = attribute [k] + rand.nextInt (1000000); break;
-                                case "Double":
-                                    subResult[j][k] = rand.nextInt (1000000) * rand.nextDouble (); break;
-                                default:
-                                    throw new IllegalArgumentException("Invalid type in switch: " + domain[k]);
-                                } // if
-
-                            } // if
-                        } // if
-                    } // for
-                } // for
+        return tempResult;
+    } // generate
+
+    /***********************************************************************************
+     * Generates random tuples that satisfy all the integrity constraints, streaming them
+     * to the sink in batches.  The tables are generated in parallel, so at most one batch
+     * per table needs to be in memory at a time.
+     * @param tuples     the number of tuples for each table
+     * @param batchSize  the maximum number of tuples per batch
+     * @param sink       the receiver of the batches
+     */
+    public void generate (int [] tuples, int batchSize, Sink sink)
+    {
+        if (batchSize <= 0) throw new IllegalArgumentException ("generate: batchSize must be positive");
+        var plan = plan (tuples);
+
+        IntStream.range (0, tuples.length).parallel ().forEach (i -> {
+            for (var lo = 0; lo < tuples [i]; lo += batchSize) {
+                var first = lo;
+                var batch = new Comparable [Math.min (batchSize, tuples [i] - lo)][];
+                IntStream.range (0, batch.length).parallel ()
+                         .forEach (j -> batch [j] = row (plan, i, first + j));
+                sink.accept (i, batch);
+            } // for
+        }); // forEach
+    } // generate
+
+    //----------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------
+
+    /***********************************************************************************
+     * Resolve the schemas of the first tuples.length tables into generation plans.
+     * @param tuples  the number of tuples for each table
+     * @return  the plan for each table
+     */
+    private Plan [] plan (int [] tuples)
+    {
+        var plan = new Plan [tuples.length];
+
+        for (var i = 0; i < tuples.length; i++) {
+            var tableName = tableIndex.get (i);
+            var attribute = tableAttr.get (tableName);
+            var domain    = tableDomain.get (tableName);
+            var pks       = Arrays.asList (tablepks.get (tableName));
+            var fks       = tablefks.get (tableName);
+            if (tuples [i] < 0 || tuples [i] > MASK) {
+                throw new IllegalArgumentException ("generate: invalid number of tuples for " + tableName);
             } // if
 
-            pKeys.clear ();
-            fkIndex.clear ();
-            result.put (tableName, subResult);
+            var dist = tableDist.get (tableName).clone ();
+            for (var k = 0; k < dist.length; k++) if (dist [k] != null) dist [k] = dist [k].bind (attribute);
+            for (var k = 0; k < dist.length; k++) if (dist [k] != null) dist [k].checkRange (domain [k], tuples [i]);
+            checkSources (tableName, dist);
+
+            var isPk = new boolean [attribute.length];
+            var fkOf = new int [attribute.length];
+            var refCol = new int [attribute.length];
+            for (var k = 0; k < attribute.length; k++) isPk [k] = pks.contains (attribute [k]);
+            Arrays.fill (fkOf, -1);
+
+            var nFks    = (fks == null) ? 0 : fks.length;
+            var fkTable = new int [nFks];
+            var fkDist  = new Distribution [nFks];
+            for (var n = 0; n < nFks; n++) {
+                fkTable [n] = tableNo (fks [n][1], tuples.length);
+                if (fkTable [n] < 0) {
+                    out.println ("Foreign Key Error: referenced table '" + fks [n][1] + "' is not part of the generated schema");
+                    out.println ("Possible Solution: Add '" + fks [n][1] + "' table and give its number of tuples.");
+                    throw new IllegalArgumentException ("generate: unknown referenced table " + fks [n][1]);
+                } // if
+                if (tuples [fkTable [n]] == 0) {
+                    throw new IllegalArgumentException ("generate: referenced table " + fks [n][1] + " is empty");
+                } // if
+
+                var sfks    = fks [n][0].split (" ");
+                var rfks    = fks [n][2].split (" ");
+                var refAttr = Arrays.asList (tableAttr.get (fks [n][1]));
+                for (var a = 0; a < sfks.length; a++) {
+                    var b = Arrays.asList (attribute).indexOf (sfks [a]);
+                    fkOf [b]   = n;                                // later foreign keys take precedence
+                    refCol [b] = refAttr.indexOf (rfks [a]);
+                    if (fkDist [n] == null) fkDist [n] = dist [b];     // first given distribution for the key
+                } // for
+            } // for
+
+            plan [i] = new Plan (attribute, domain, isPk, fkOf, fkTable, refCol, dist, fkDist,
+                                 tuples [i], mix (seed + i));
         } // for
 
-        var tempResult = new Comparable [result.size()][][];
+        return plan;
+    } // plan
 
-        for (var i = 0; i < result.size (); i++) {
-            tableName = tableIndex.get (i);
-            Comparable [][] subTable = result.get (tableName);
-            tempResult [i] = subTable;
+    /***********************************************************************************
+     * Check that correlated columns do not (directly or indirectly) depend on themselves.
+     * @param name  the table's name
+     * @param dist  the bound distributions of the table's columns
+     */
+    private static void checkSources (String name, Distribution [] dist)
+    {
+        for (var k = 0; k < dist.length; k++) {
+            var c = k;
+            for (var steps = 0; c >= 0 && dist [c] != null; steps++) {
+                if (steps > dist.length) {
+                    throw new IllegalArgumentException ("addRelSchema: cyclic correlated columns in " + name);
+                } // if
+                c = dist [c].source ();
+            } // for
         } // for
+    } // checkSources
 
-        return tempResult;
-    } // generate
+    /***********************************************************************************
+     * Return the table number for the given table name, or -1 if it is not among the
+     * first nTables tables.
+     * @param name     the table's name
+     * @param nTables  the number of tables being generated
+     */
+    private int tableNo (String name, int nTables)
+    {
+        for (var i = 0; i < nTables; i++) if (tableIndex.get (i).equals (name)) return i;
+        return -1;
+    } // tableNo
 
-} // TestGeneratorImpl class
+    /***********************************************************************************
+     * Generate row j of table i.
+     * @param plan  the generation plans for all the tables
+     * @param i     the table number
+     * @param j     the row number
+     */
+    private Comparable [] row (Plan [] plan, int i, long j)
+    {
+        var tup = new Comparable [plan [i].attribute.length];
+        for (var k = 0; k < tup.length; k++) tup [k] = cell (plan, i, j, k);
+        return tup;
+    } // row
+
+    /***********************************************************************************
+     * Generate the value in column k of row j of table i.  A column supplied by a foreign
+     * key takes its value from a randomly chosen row of the referenced table (chosen by the
+     * key's distribution when given); all the columns of a composite foreign key choose
+     * the same referenced row.
+     * @param plan  the generation plans for all the tables
+     * @param i     the table number
+     * @param j     the row number
+     * @param k     the column number
+     */
+    private Comparable cell (Plan [] plan, int i, long j, int k)
+    {
+        var p = plan [i];
+        var n = p.fkOf [k];
+
+        if (n >= 0) {                                              // maintain referential integrity
+            var ref = p.fkTable [n];
+            var rng = rand (p, j, -1 - n);
+            var r   = (p.fkDist [n] == null) ? rng.nextLong (plan [ref].n)
+                                             : p.fkDist [n].nextIndex (rng, j, plan [ref].n);
+            return cell (plan, ref, r, p.refCol [k]);
+        } // if
+
+        var rng  = rand (p, j, k);
+        var attr = p.attribute [k];
+        var dist = p.dist [k];
+
+        if (dist != null) {                                        // value from the given distribution
+            var source = (dist.source () >= 0) ? cell (plan, i, j, dist.source ()) : null;
+            var dVal   = dist.next (rng, j, source);
+            return switch (p.domain [k]) {
+            case "Integer" -> (int) Math.round (dVal);
+            case "String"  -> attr + Math.round (dVal);
+            case "Double"  -> dVal;
+            default        -> throw new IllegalArgumentException ("Invalid type in switch: " + p.domain [k]);
+            }; // switch
+        } // if
+
+        if (p.isPk [k]) {                                          // key requires uniqueness
+            var uVal = permute (j, mix (p.salt + k));
+            return switch (p.domain [k]) {
+            case "Integer" -> (int) uVal;
+            case "String"  -> attr + uVal;
+            case "Double"  -> uVal + rng.nextDouble ();
+            default        -> throw new IllegalArgumentException ("Invalid type in switch: " + p.domain [k]);
+            }; // switch
+        } // if
+
+        return switch (p.domain [k]) {                             // non-key does not require uniqueness
+        case "Integer" -> rng.nextInt (1000000);
+        case "String"  -> attr + rng.nextInt (1000000);
+        case "Double"  -> rng.nextInt (1000000) * rng.nextDouble ();
+        default        -> throw new IllegalArgumentException ("Invalid type in switch: " + p.domain [k]);
+        }; // switch
+    } // cell
+
+    /***********************************************************************************
+     * Return the random number generator for the given cell of a table.
+     * @param p  the table's plan
+     * @param j  the row number
+     * @param k  the column number (negative for choosing foreign key rows)
+     */
+    private static SplittableRandom rand (Plan p, long j, int k)
+    {
+        return new SplittableRandom (mix (mix (p.salt + j) + k));
+    } // rand
+
+    /***********************************************************************************
+     * Map row number j to a unique value in [0, 2^31) using a bijection on 31-bit integers
+     * (add, multiply by an odd constant and xor-shift are each invertible modulo 2^31).
+     * @param j     the row number
+     * @param salt  the salt selecting the permutation
+     */
+    private static long permute (long j, long salt)
+    {
+        var x = (j + salt) & MASK;
+        x = (x * 0x5DEECE66DL) & MASK;
+        x ^= x >>> 16;
+        x = (x * 0x2545F491L) & MASK;
+        x ^= x >>> 13;
+        return x;
+    } // permute
+
+    /***********************************************************************************
+     * Scramble the bits of z (MurmurHash3 finalizer, variant 13).
+     * @param z  the value to mix
+     */
+    private static long mix (long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    } // mix
 
+} // TestGeneratorImpl class
@@ -0,0 +1,100 @@
+
+/************************************************************************************
+ * @file TupleList.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+/************************************************************************************
+ * The `TupleList` class provides an append-only list of tuples that one writer may
+ * extend while any number of readers scan it without locking.  The tuples are kept in
+ * fixed-size chunks, so appending never copies or moves existing tuples, and the size
+ * acts as a watermark: it is published (volatile) only after the tuple is stored, so a
+ * reader sees every tuple below the size it read.  Iterators and streams work on a
+ * snapshot of the tuples present when they were created.
+ */
+public class TupleList
+       extends AbstractList <Comparable []>
+       implements RandomAccess, Serializable
+{
+    private static final int CHUNK_BITS = 12;                       // log2 of tuples per chunk
+    private static final int CHUNK      = 1 << CHUNK_BITS;          // tuples per chunk
+
+    private volatile Comparable [][][] dir = new Comparable [16][][];  // directory of chunks
+    private volatile int size = 0;                                  // number of tuples (watermark)
+
+    /********************************************************************************
+     * Return the number of tuples in the list (the current watermark).
+     */
+    public int size () { return size; }
+
+    /********************************************************************************
+     * Get the tuple at position i, which must be below the watermark.
+     * @param i  the position of the tuple
+     */
+    public Comparable [] get (int i)
+    {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException (i);
+        return dir [i >>> CHUNK_BITS][i & (CHUNK - 1)];
+    } // get
+
+    /********************************************************************************
+     * Append tuple t to the end of the list.  Only one thread may append at a time
+     * (the Table's write lock), but readers need no lock.
+     * @param t  the tuple to append
+     * @return  true
+     */
+    public boolean add (Comparable [] t)
+    {
+        var n = size;
+        var c = n >>> CHUNK_BITS;
+        var d = dir;
+        if (c == d.length) d = Arrays.copyOf (d, 2 * d.length);    // copies chunk refs only
+        if (d [c] == null) d [c] = new Comparable [CHUNK][];
+        d [c][n & (CHUNK - 1)] = t;
+        dir  = d;                                                   // publish the directory, then
+        size = n + 1;                                               // the new watermark
+        return true;
+    } // add
+
+    /********************************************************************************
+     * Return a fixed-size view of the tuples currently in the list; later appends are
+     * not visible through it.
+     */
+    public List <Comparable []> snapshot ()
+    {
+        var n = size;
+        var d = dir;
+        return new Snapshot (d, n);
+    } // snapshot
+
+    public Iterator <Comparable []> iterator () { return snapshot ().iterator (); }
+
+    public Spliterator <Comparable []> spliterator () { return snapshot ().spliterator (); }
+
+    /********************************************************************************
+     * The `Snapshot` class is a read-only view of the first n tuples.
+     */
+    private static class Snapshot
+            extends AbstractList <Comparable []>
+            implements RandomAccess
+    {
+        private final Comparable [][][] d;                          // the directory when taken
+        private final int n;                                        // the watermark when taken
+
+        Snapshot (Comparable [][][] d, int n) { this.d = d; this.n = n; }
+
+        public int size () { return n; }
+
+        public Comparable [] get (int i)
+        {
+            if (i < 0 || i >= n) throw new IndexOutOfBoundsException (i);
+            return d [i >>> CHUNK_BITS][i & (CHUNK - 1)];
+        } // get
+
+    } // Snapshot
+
+} // TupleList
@@ -0,0 +1,148 @@
+
+/************************************************************************************
+ * @file TupleSet.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+
+/************************************************************************************
+ * The `TupleSet` class provides compact sets of tuples compared by value (all their
+ * attributes), e.g., for eliminating duplicates.  It uses open addressing (linear
+ * probing) over an array of tuples with their hash codes kept in a parallel int array,
+ * so a probe compares tuples only when the hash codes match, and nothing is allocated
+ * per tuple (no entries or keys).
+ */
+public class TupleSet
+       extends AbstractSet <Comparable []>
+{
+    private static final double LOAD = 0.5;                         // maximum load factor
+
+    private Comparable [][] slot;                                   // the tuples (null => empty)
+    private int []          hash;                                   // their hash codes
+    private int             size;                                   // number of tuples
+
+    /********************************************************************************
+     * Construct an empty tuple set sized for the expected number of tuples.
+     * @param expected  the expected number of tuples
+     */
+    public TupleSet (int expected)
+    {
+        var cap = 16;
+        while (cap * LOAD < expected && cap < 1 << 30) cap <<= 1;
+        slot = new Comparable [cap][];
+        hash = new int [cap];
+    } // constructor
+
+    /********************************************************************************
+     * Return the number of tuples in the set.
+     */
+    public int size () { return size; }
+
+    /********************************************************************************
+     * Return the hash code of tuple t (by value).
+     * @param t  the tuple
+     */
+    public static int hash (Comparable [] t)
+    {
+        var h = 1;
+        for (var v : t) h = 31 * h + Objects.hashCode (v);
+        return h ^ (h >>> 16);
+    } // hash
+
+    /********************************************************************************
+     * Add tuple t to the set unless an equal tuple is already in it.
+     * @param t  the tuple to add
+     * @return  whether t was added
+     */
+    public boolean add (Comparable [] t) { return add (t, hash (t)); }
+
+    /********************************************************************************
+     * Add tuple t, whose hash code h has already been computed, to the set unless an
+     * equal tuple is already in it.
+     * @param t  the tuple to add
+     * @param h  its hash code, hash (t)
+     * @return  whether t was added
+     */
+    public boolean add (Comparable [] t, int h)
+    {
+        var s = find (t, h);
+        if (slot [s] != null) return false;
+        slot [s] = t;
+        hash [s] = h;
+        if (++size > LOAD * slot.length) grow ();
+        return true;
+    } // add
+
+    /********************************************************************************
+     * Return whether the set contains a tuple equal to t.
+     * @param t  the tuple to look for
+     */
+    public boolean contains (Object t)
+    {
+        return t instanceof Comparable [] tup && contains (tup, hash (tup));
+    } // contains
+
+    /********************************************************************************
+     * Return whether the set contains a tuple equal to t, whose hash code is h.
+     * @param t  the tuple to look for
+     * @param h  its hash code, hash (t)
+     */
+    public boolean contains (Comparable [] t, int h)
+    {
+        return slot [find (t, h)] != null;
+    } // contains
+
+    /********************************************************************************
+     * Iterate over the tuples in the set (in no particular order).
+     */
+    public Iterator <Comparable []> iterator ()
+    {
+        return new Iterator <Comparable []> () {
+            int i = advance (0);
+
+            int advance (int j) { while (j < slot.length && slot [j] == null) j++; return j; }
+
+            public boolean hasNext () { return i < slot.length; }
+
+            public Comparable [] next ()
+            {
+                if (i >= slot.length) throw new NoSuchElementException ();
+                var t = slot [i];
+                i = advance (i + 1);
+                return t;
+            } // next
+        }; // Iterator
+    } // iterator
+
+    /********************************************************************************
+     * Return the slot holding a tuple equal to t, or else the empty slot ending its
+     * probe sequence.
+     */
+    private int find (Comparable [] t, int h)
+    {
+        var mask = slot.length - 1;
+        var s    = h & mask;
+        while (slot [s] != null && (hash [s] != h || ! Arrays.equals (slot [s], t))) s = (s + 1) & mask;
+        return s;
+    } // find
+
+    /********************************************************************************
+     * Double the capacity, re-placing the tuples by their stored hash codes.
+     */
+    private void grow ()
+    {
+        var oldSlot = slot;
+        var oldHash = hash;
+        slot = new Comparable [2 * oldSlot.length][];
+        hash = new int [2 * oldSlot.length];
+        for (var i = 0; i < oldSlot.length; i++) {
+            if (oldSlot [i] == null) continue;
+            var s = find (oldSlot [i], oldHash [i]);
+            slot [s] = oldSlot [i];
+            hash [s] = oldHash [i];
+        } // for
+    } // grow
+
+} // TupleSet
@@ -0,0 +1,99 @@
+
+/************************************************************************************
+ * @file ZoneMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+/************************************************************************************
+ * The `ZoneMap` class keeps, for each block of consecutive tuples of a table (e.g.,
+ * 4096 rows), the minimum and maximum value of every column, so a scan for a simple
+ * condition such as "year >= 1990" may skip the blocks whose range cannot satisfy it.
+ * On columns where the tuples are (roughly) clustered, e.g., ids or dates inserted in
+ * order, a selective range condition then reads only a few blocks.  The zone map is
+ * extended as tuples are appended and is saved along with its table.
+ */
+class ZoneMap
+      implements Serializable
+{
+    private final int block;                                        // rows per block
+    private final int arity;                                        // number of columns
+    private final List <Comparable []> min = new ArrayList <> ();   // per block, each column's minimum
+    private final List <Comparable []> max = new ArrayList <> ();   // per block, each column's maximum
+    private int rows = 0;                                           // number of tuples summarized
+
+    /********************************************************************************
+     * Construct an empty zone map.
+     * @param _arity  the number of columns
+     * @param _block  the number of rows per block
+     */
+    ZoneMap (int _arity, int _block)
+    {
+        arity = _arity;
+        block = _block;
+    } // constructor
+
+    /********************************************************************************
+     * Summarize the tuples appended to the list since the last call.
+     * @param tuples  the table's tuples (only ever appended to)
+     */
+    synchronized void extend (List <Comparable []> tuples)
+    {
+        for (var n = tuples.size (); rows < n; rows++) {
+            var b = rows / block;
+            if (b == min.size ()) {
+                min.add (new Comparable [arity]);
+                max.add (new Comparable [arity]);
+            } // if
+            var t  = tuples.get (rows);
+            var lo = min.get (b);
+            var hi = max.get (b);
+            for (var j = 0; j < arity; j++) {
+                var v = t [j];
+                if (v == null) continue;
+                if (lo [j] == null || v.compareTo (lo [j]) < 0) lo [j] = v;
+                if (hi [j] == null || v.compareTo (hi [j]) > 0) hi [j] = v;
+            } // for
+        } // for
+    } // extend
+
+    /********************************************************************************
+     * Return the number of rows per block.
+     */
+    int block () { return block; }
+
+    /********************************************************************************
+     * Return the number of blocks.
+     */
+    synchronized int blocks () { return min.size (); }
+
+    /********************************************************************************
+     * Return whether some tuple in block b might satisfy t[col] op value, where op is
+     * ==, !=, <, <=, >, >= (false means no tuple in the block can).
+     * @param b      the block
+     * @param col    the column
+     * @param op     the comparison operator
+     * @param value  the value to compare with (of the column's domain)
+     */
+    @SuppressWarnings ("unchecked")
+    synchronized boolean mayMatch (int b, int col, String op, Comparable value)
+    {
+        var lo = min.get (b) [col];
+        var hi = max.get (b) [col];
+        if (lo == null) return false;                               // no values in the block
+        return switch (op) {
+        case "==" -> lo.compareTo (value) <= 0 && hi.compareTo (value) >= 0;
+        case "!=" -> lo.compareTo (value) != 0 || hi.compareTo (value) != 0;
+        case "<"  -> lo.compareTo (value) <  0;
+        case "<=" -> lo.compareTo (value) <= 0;
+        case ">"  -> hi.compareTo (value) >  0;
+        case ">=" -> hi.compareTo (value) >= 0;
+        default   -> true;
+        }; // switch
+    } // mayMatch
+
+} // ZoneMap
+
@@ -54,7 +54,7 @@ public class Tester {
             out.println (tables [i]);
             for (var j = 0; j < resultTest [i].length; j++) {
                 out.println ();
-                int ref = (int)resultTest[i][j][0] % keys;
+                int ref = (int)resultTest[i][j][0];
                 out.println(ref);
                 dIndex.put (ref, testerTable.insert (resultTest[i][j]));
               //  testerTable.insert(resultTest[i][j]);
@@ -82,7 +82,7 @@ public class Tester {
             out.println (tables [i]);
             for (var j = 0; j < resultTest [i].length; j++) {
                 out.println ();
-                int ref = (int)resultTest[i][j][0] % keys;
+                int ref = (int)resultTest[i][j][0];
                 out.println(ref);
                 dIndex.put (ref, testerTable2.insert (resultTest[i][j]));
                 //  testerTable.insert(resultTest[i][j]);
@@ -104,7 +104,7 @@ public class Tester {
         tupC[1] = (String)("name" + rand.nextInt(1000000));
         tupC[2] = (String)("address" + rand.nextInt(1000000));
         tupC[3] = (String)("status" + rand.nextInt(1000000));
-        int ref = (int)tupC[0] % keys;
+        int ref = (int)tupC[0];
         dIndex.put (ref, testerTable.insert (tupC));
         KeyType searching = new KeyType(tupC[0]);
         testerTable.print();
@@ -122,7 +122,7 @@ public class Tester {
         tupC[1] = (String)("name" + rand.nextInt(1000000));
         tupC[2] = (String)("address" + rand.nextInt(1000000));
         tupC[3] = (String)("status" + rand.nextInt(1000000));
-        int ref = (int)tupC[0] % keys;
+        int ref = (int)tupC[0];
         testerTable.print();
         KeyType searching = new KeyType(tupC[0]);
         testerTable.select(searching).print();